@@ -0,0 +1,47 @@
+#!/bin/sh
+#
+# Copyright 2014 Sander Verdonschot <sander.verdonschot at gmail.com>.
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+#      http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+#
+# Starts a test suite with JVM settings tuned for short grading runs.
+#
+# Usage: grade.sh MainClass [arguments...]
+#
+# The test suite and student classes are taken from CHECKER_CLASSPATH, which is
+# appended to the checker jar. If the class data sharing archive built by
+# "ant cds" exists, it is used. For the archive to apply, CHECKER_CLASSPATH
+# must start with the training classpath that was used to build it. Extra JVM
+# options can be given in CHECKER_JVM_OPTS.
+
+DIST="$(cd "$(dirname "$0")" && pwd)/dist"
+JAVA="${JAVA_HOME:+$JAVA_HOME/bin/}java"
+CLASSPATH="$DIST/Checker.jar${CHECKER_CLASSPATH:+:$CHECKER_CLASSPATH}"
+
+# Short runs gain nothing from a parallel collector or performance counters
+OPTS="-XX:+UseSerialGC -XX:-UsePerfData"
+
+if [ -f "$DIST/checker.jsa" ]; then
+    OPTS="$OPTS -Xshare:auto -XX:SharedArchiveFile=$DIST/checker.jsa"
+fi
+
+# From Java 12, the checker may only install its security manager if allowed.
+# The version is read from the release file, as running java -version would
+# cost a second JVM start.
+JAVA_ROOT="$(dirname "$(dirname "$(readlink -f "$(command -v "$JAVA")")")")"
+JAVA_MAJOR=$(sed -n 's/^JAVA_VERSION="\(1\.\)\{0,1\}\([0-9]*\).*/\2/p' "$JAVA_ROOT/release" 2>/dev/null)
+if [ "${JAVA_MAJOR:-0}" -ge 12 ]; then
+    OPTS="$OPTS -Djava.security.manager=allow"
+fi
+
+exec "$JAVA" $OPTS $CHECKER_JVM_OPTS -Dchecker.launchTime="$(date +%s%3N)" -cp "$CLASSPATH" "$@"
@@ -21,53 +21,177 @@ import java.io.Writer;
 
 public abstract class AtomicTest extends Test {
 
+    private static final int STOP_TIMEOUT = 1000; // Milliseconds to wait for a stopped test to finish
     private final int marks;
+    private StdinFixture input = null; // Use the checker's input
 
     public AtomicTest(String name, int marks) {
         super(name);
         this.marks = marks;
     }
 
+    public AtomicTest(String name, int marks, StdinFixture input) {
+        this(name, marks);
+        this.input = input;
+    }
+
     @Override
-    @SuppressWarnings("deprecation")
     public TestResult run(int timePerTest, Checker checker) {
-        RunnableTest test = new RunnableTest(checker);
-        Thread testThread = new Thread(test, "TestThread");
+        if (input != null) {
+            checker.resetInput(input);
+        }
+
+        StudentSecurityManager.SharedSecret secret = new StudentSecurityManager.SharedSecret();
+        StudentSecurityManager sm = new StudentSecurityManager(checker, secret);
+        RunnableTest test = new RunnableTest(checker, sm);
+        ThreadGroup testThreads = new ThreadGroup("TestThreads");
+        Thread testThread = new Thread(testThreads, test, "TestThread");
+        testThread.setContextClassLoader(checker.getStudentClassLoader());
+        ProgressMonitor monitor = new ProgressMonitor(testThreads, checker.isDeadlockDetection(), checker.getIdleWindow());
 
         testThread.start();
 
+        StackSampler sampler = null;
+
+        if (checker.getSamplingInterval() > 0) {
+            sampler = new StackSampler(testThread, checker.getSamplingInterval(), getClass().getName());
+            sampler.start();
+        }
+
         long start = System.currentTimeMillis();
+        ProgressMonitor.Status status = ProgressMonitor.Status.RUNNING;
 
-        while (testThread.isAlive() && System.currentTimeMillis() - start < timePerTest) {
+        while (testThread.isAlive() && System.currentTimeMillis() - start < timePerTest && status == ProgressMonitor.Status.RUNNING) {
             try {
                 Thread.sleep(100);
             } catch (InterruptedException e) {
             }
+
+            status = monitor.check();
         }
 
-        if (testThread.isAlive()) {
-            checker.getErr().printf("Time limit (%.0fs) exceeded for %s. Forcing shutdown...%n", timePerTest / 1000.0, getName());
+        if (sampler != null) {
+            sampler.stop();
+        }
 
-            testThread.stop();
-            try {
-                testThread.join();
-            } catch (InterruptedException ex) {
-            }
+        if (testThread.isAlive()) {
+            String comment;
+            String details = (sampler == null ? null : sampler.getSummary());
 
-            if (System.getSecurityManager() != null) {
-                ((StudentSecurityManager) System.getSecurityManager()).disable(test.secret);
+            if (status == ProgressMonitor.Status.DEADLOCKED) {
+                comment = String.format("Deadlock detected in %s.", getName());
+                details = join(monitor.getThreadDump(), details);
+            } else if (status == ProgressMonitor.Status.NO_PROGRESS) {
+                comment = String.format("No progress in %s: all threads were blocked or waiting for %.1fs.", getName(), checker.getIdleWindow() / 1000.0);
+                details = join(monitor.getThreadDump(), details);
+            } else {
+                comment = String.format("Time limit (%.0fs) exceeded for %s.", timePerTest / 1000.0, getName());
             }
 
-            return fail(String.format("Time limit (%.0fs) exceeded for %s.", timePerTest / 1000.0, getName()));
+            checker.getErr().printf("%s Forcing shutdown...%n", comment);
+            stopThreads(testThreads, checker, sm, secret);
+            return fail(comment, details);
         } else {
             checker.getErr().printf("Test for %s took %f seconds.%n", getName(), (System.currentTimeMillis() - start) / 1000.0);
         }
 
+        // Threads started by the test could still be running
+        stopThreads(testThreads, checker, sm, secret);
         return test.getResult();
     }
 
     public abstract TestResult test(Checker checker) throws Exception;
 
+    /**
+     * Forcibly stops a thread running student code. The security manager only
+     * allows this when it is called from this class.
+     *
+     * @param thread
+     */
+    @SuppressWarnings("deprecation")
+    static void stop(Thread thread) {
+        thread.stop();
+    }
+
+    /**
+     * Stops all threads in the group and removes the security manager once
+     * they have ended. Threads that catch ThreadDeath or are blocked on a
+     * monitor may not end. The security manager then stays installed, as
+     * removing it would give them full permissions, and the checker stops
+     * grading.
+     *
+     * @param group
+     * @param checker
+     * @param sm the security manager of the test
+     * @param secret the key that was used when creating the security manager
+     * @return true if all threads ended
+     */
+    static boolean stopThreads(ThreadGroup group, Checker checker, StudentSecurityManager sm, StudentSecurityManager.SharedSecret secret) {
+        long deadline = System.currentTimeMillis() + STOP_TIMEOUT;
+        Thread[] threads = getThreads(group);
+
+        while (threads.length > 0 && System.currentTimeMillis() < deadline) {
+            for (Thread thread : threads) {
+                stop(thread);
+            }
+
+            for (Thread thread : threads) {
+                long remaining = deadline - System.currentTimeMillis();
+
+                try {
+                    if (remaining > 0) {
+                        thread.join(remaining);
+                    }
+                } catch (InterruptedException e) {
+                }
+            }
+
+            // Stopped threads may have started new ones
+            threads = getThreads(group);
+        }
+
+        if (threads.length > 0) {
+            sm.allowExit(secret);
+            checker.threadsSurvived();
+            return false;
+        }
+
+        // Revert to full permissions for the checker
+        sm.disable(secret);
+        return true;
+    }
+
+    /**
+     * Returns the live threads in the given group and its subgroups. This does
+     * not use ProgressMonitor, which cannot be initialized while a security
+     * manager is installed.
+     *
+     * @param group
+     * @return
+     */
+    static Thread[] getThreads(ThreadGroup group) {
+        Thread[] testThreads = new Thread[group.activeCount() + 1];
+        int count = group.enumerate(testThreads);
+
+        while (count == testThreads.length) {
+            // Threads were started in the meantime
+            testThreads = new Thread[2 * testThreads.length];
+            count = group.enumerate(testThreads);
+        }
+
+        Thread[] result = new Thread[count];
+        System.arraycopy(testThreads, 0, result, 0, count);
+        return result;
+    }
+
+    private static String join(String first, String second) {
+        if (first == null || second == null) {
+            return (first == null ? second : first);
+        }
+
+        return first + String.format("%n") + second;
+    }
+
     public TestResult fail(String comment) {
         return fail(comment, null);
     }
@@ -80,14 +204,29 @@ public abstract class AtomicTest extends Test {
         return marks;
     }
 
+    public StdinFixture getInput() {
+        return input;
+    }
+
+    /**
+     * Sets the input that student code reads from System.in during this test.
+     *
+     * @param input the input for this test, or null to use the input of the
+     * checker
+     */
+    public void setInput(StdinFixture input) {
+        this.input = input;
+    }
+
     class RunnableTest implements Runnable {
 
         private TestResult result = fail(String.format("Test for %s did not finish.", AtomicTest.this.getName()));
         private final Checker checker;
-        private final StudentSecurityManager.SharedSecret secret = new StudentSecurityManager.SharedSecret();
+        private final StudentSecurityManager sm;
 
-        RunnableTest(Checker checker) {
+        RunnableTest(Checker checker, StudentSecurityManager sm) {
             this.checker = checker;
+            this.sm = sm;
         }
 
         public TestResult getResult() {
@@ -97,7 +236,6 @@ public abstract class AtomicTest extends Test {
         @Override
         public void run() {
             // Don't allow student code to do anything harmful
-            StudentSecurityManager sm = new StudentSecurityManager(checker, secret);
             System.setSecurityManager(sm);
 
             try {
@@ -117,9 +255,6 @@ public abstract class AtomicTest extends Test {
                 e.printStackTrace(new PrintWriter(stackTrace));
                 result = fail(String.format("Exception for %s: %s", AtomicTest.this.getName(), e.toString()), stackTrace.toString());
             }
-
-            // Revert to full permissions for the checker
-            sm.disable(secret);
         }
     }
 }
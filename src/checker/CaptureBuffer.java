@@ -0,0 +1,74 @@
+/*
+ * Copyright 2014 Sander Verdonschot <sander.verdonschot at gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package checker;
+
+import checker.util.OutputReader;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * Collects the bytes that student code writes to System.out.
+ *
+ * @author Sander Verdonschot <sander.verdonschot at gmail.com>
+ */
+class CaptureBuffer extends OutputStream {
+
+    private byte[] bytes = new byte[8192];
+    private int count = 0;
+
+    @Override
+    public synchronized void write(int b) {
+        ensureCapacity(count + 1);
+        bytes[count] = (byte) b;
+        count++;
+    }
+
+    @Override
+    public synchronized void write(byte[] b, int off, int len) {
+        ensureCapacity(count + len);
+        System.arraycopy(b, off, bytes, count, len);
+        count += len;
+    }
+
+    synchronized void clear() {
+        count = 0;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return new String(bytes, 0, count);
+    }
+
+    /**
+     * Returns a reader over the bytes written so far. The reader shares the
+     * buffer, so it remains valid only until the buffer is cleared.
+     *
+     * @return
+     */
+    synchronized OutputReader reader() {
+        return new OutputReader(bytes, 0, count);
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity < 0) {
+            throw new OutOfMemoryError("Captured output exceeds the maximum buffer size.");
+        }
+
+        if (capacity > bytes.length) {
+            bytes = Arrays.copyOf(bytes, Math.max(capacity, 2 * bytes.length));
+        }
+    }
+}
@@ -15,7 +15,9 @@
  */
 package checker;
 
+import checker.util.OutputReader;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.PrintStream;
 import java.nio.file.Path;
@@ -26,20 +28,30 @@ public class Checker {
     private final Iterable<Path> writeDirectories;
     private PrintStream out = null; // System.out
     private PrintStream err = null; // System.err
+    private InputStream in = null; // System.in
     private final int timePerTest;
+    private int samplingInterval = 0; // Milliseconds between stack samples of a test, 0 to disable
+    private boolean deadlockDetection = true;
+    private int idleWindow = 0; // Milliseconds without progress before a test is stopped, 0 to disable
+    private ClassLoader studentClassLoader = null; // Loads student classes that are not on the class path
     private int mark;
     private int maxMark;
     private boolean securityBreached = false;
-    private final StringBuilder output;
+    private boolean threadsSurvived = false; // Student threads are still running under the security manager
+    private long launchTime = 0; // Set by the launcher to report startup latency
+    private final CaptureBuffer output;
+    private StdinFixture input = StdinFixture.EMPTY;
+    private volatile InputStream studentInput = StdinFixture.EMPTY.newStream();
 
     public Checker(Iterable<Path> readDirectories, Iterable<Path> writeDirectories, int timePerTest) {
         this.readDirectories = readDirectories;
         this.writeDirectories = writeDirectories;
         this.timePerTest = timePerTest;
-        output = new StringBuilder();
+        output = new CaptureBuffer();
     }
 
     public void initialize() {
+        launchTime = Long.getLong("checker.launchTime", 0);
         setupSystem();
 
         mark = 0;
@@ -52,10 +64,16 @@ public class Checker {
 
     public void runTest(Test test, int timeForThisTest) {
         clearOutput();
+        resetInput(input);
 
         out.println("Testing " + test.getName() + ".");
         err.println("Testing " + test.getName() + ".");
 
+        if (launchTime > 0) {
+            err.printf("First test started %d ms after launch.%n", System.currentTimeMillis() - launchTime);
+            launchTime = 0;
+        }
+
         TestResult result = test.run(timeForThisTest, this);
 
         mark += result.score;
@@ -80,6 +98,17 @@ public class Checker {
             finish();
         }
 
+        if (threadsSurvived) {
+            out.printf("Threads of %s could not be stopped. Tests terminated.%n", test.getName());
+            err.printf("Threads of %s could not be stopped. Tests terminated.%n", test.getName());
+
+            // The remaining tests did not run, so the total is not a valid mark
+            out.printf("Tests incomplete. Total mark: %d/%d.%n", mark, maxMark);
+            err.printf("Tests incomplete. Total mark: %d/%d.%n", mark, maxMark);
+
+            System.exit(1);
+        }
+
         out.printf("Finished %s. Result: %d/%d.%n%n", test.getName(), result.score, result.maxScore);
         err.printf("Finished %s. Result: %d/%d.%n%n", test.getName(), result.score, result.maxScore);
     }
@@ -95,31 +124,92 @@ public class Checker {
         return output.toString();
     }
 
+    /**
+     * Returns a reader over the output of the current test. The reader does
+     * not copy the output, so it is only valid until the output is cleared,
+     * which happens at the start of every test.
+     *
+     * @return
+     */
+    public OutputReader getOutputReader() {
+        return output.reader();
+    }
+
     public void clearOutput() {
-        output.delete(0, output.length());
+        output.clear();
+    }
+
+    /**
+     * Sets the input that student code reads from System.in. Each test starts
+     * reading from the beginning of this input, unless the test supplies its
+     * own.
+     *
+     * @param input the input for all subsequent tests, or null for no input
+     */
+    public void setInput(StdinFixture input) {
+        this.input = (input == null ? StdinFixture.EMPTY : input);
+    }
+
+    public StdinFixture getInput() {
+        return input;
+    }
+
+    /**
+     * Makes System.in read from the start of the given input.
+     *
+     * @param input
+     */
+    void resetInput(StdinFixture input) {
+        studentInput = input.newStream();
     }
 
     private void setupSystem() {
         out = System.out;
         err = System.err;
+        in = System.in;
 
-        // Catch System.out to parse student output
-        PrintStream studentOutput = new PrintStream(new OutputStream() {
+        // Supply System.in from the current input fixture
+        InputStream fixtureInput = new InputStream() {
             @Override
-            public void write(int b) throws IOException {
-                output.append(new String(new byte[]{(byte) b}));
+            public int read() throws IOException {
+                return studentInput.read();
             }
 
             @Override
-            public void write(byte[] b) throws IOException {
-                output.append(new String(b));
+            public int read(byte[] b, int off, int len) throws IOException {
+                return studentInput.read(b, off, len);
             }
 
             @Override
-            public void write(byte[] b, int off, int len) throws IOException {
-                output.append(new String(b, off, len));
+            public long skip(long n) throws IOException {
+                return studentInput.skip(n);
             }
-        });
+
+            @Override
+            public int available() throws IOException {
+                return studentInput.available();
+            }
+
+            @Override
+            public boolean markSupported() {
+                return studentInput.markSupported();
+            }
+
+            @Override
+            public synchronized void mark(int readlimit) {
+                studentInput.mark(readlimit);
+            }
+
+            @Override
+            public synchronized void reset() throws IOException {
+                studentInput.reset();
+            }
+        };
+
+        System.setIn(fixtureInput);
+
+        // Catch System.out to parse student output
+        PrintStream studentOutput = new PrintStream(output);
 
         System.setOut(studentOutput);
 
@@ -154,6 +244,15 @@ public class Checker {
         securityBreached = true;
     }
 
+    /**
+     * Informs the checker that threads of the current test are still running
+     * after they were stopped. No further tests are run, since this requires
+     * removing the security manager.
+     */
+    void threadsSurvived() {
+        threadsSurvived = true;
+    }
+
     public PrintStream getErr() {
         return err;
     }
@@ -162,6 +261,92 @@ public class Checker {
         return out;
     }
 
+    public InputStream getIn() {
+        return in;
+    }
+
+    public int getSamplingInterval() {
+        return samplingInterval;
+    }
+
+    /**
+     * Enables a sampling profiler for each test. When a test exceeds its time
+     * limit, a summary of where student code spent its time is added to the
+     * details of the result.
+     *
+     * @param samplingInterval the time between stack samples in milliseconds,
+     * or 0 to disable profiling
+     */
+    public void setSamplingInterval(int samplingInterval) {
+        this.samplingInterval = samplingInterval;
+    }
+
+    public boolean isDeadlockDetection() {
+        return deadlockDetection;
+    }
+
+    /**
+     * Sets whether a test is stopped as soon as some of its threads are
+     * deadlocked, instead of when it reaches its time limit. Threads blocked on
+     * a monitor cannot be stopped, so after a deadlock no further tests are
+     * run. The checker then prints "Tests incomplete." instead of "Tests
+     * complete." with the total of the tests so far, and exits with status 1.
+     *
+     * @param deadlockDetection
+     */
+    public void setDeadlockDetection(boolean deadlockDetection) {
+        this.deadlockDetection = deadlockDetection;
+    }
+
+    public int getIdleWindow() {
+        return idleWindow;
+    }
+
+    /**
+     * Stops a test once all threads it started have been blocked or waiting,
+     * without using CPU time, for the given time. Only use this when student
+     * code does not wait for threads it did not start itself, such as those of
+     * the common fork/join pool.
+     *
+     * @param idleWindow the time in milliseconds, or 0 to disable this check
+     */
+    public void setIdleWindow(int idleWindow) {
+        this.idleWindow = idleWindow;
+    }
+
+    /**
+     * Returns the class loader for student classes. Unless they were compiled
+     * in memory, this is the loader of the checker itself.
+     *
+     * @return
+     */
+    public ClassLoader getStudentClassLoader() {
+        return studentClassLoader == null ? Checker.class.getClassLoader() : studentClassLoader;
+    }
+
+    /**
+     * Sets the class loader for student classes. It is also the context class
+     * loader of every test thread.
+     *
+     * @param studentClassLoader
+     */
+    public void setStudentClassLoader(ClassLoader studentClassLoader) {
+        this.studentClassLoader = studentClassLoader;
+    }
+
+    /**
+     * Loads the student class with the given name without initializing it, so
+     * its static initializers run only once a test uses the class, under the
+     * security manager of that test.
+     *
+     * @param name
+     * @return
+     * @throws ClassNotFoundException
+     */
+    public Class<?> loadStudentClass(String name) throws ClassNotFoundException {
+        return Class.forName(name, false, getStudentClassLoader());
+    }
+
     public Iterable<Path> getReadDirectories() {
         return readDirectories;
     }
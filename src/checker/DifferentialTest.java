@@ -0,0 +1,580 @@
+/*
+ * Copyright 2014 Sander Verdonschot <sander.verdonschot at gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package checker;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Compares student code to a reference implementation on a large number of
+ * random inputs. The inputs are generated from seeds and tested on all cores
+ * at once, until the maximum number of inputs is reached or most of the time
+ * for the test has passed. When the outputs differ, the input is shrunk to a
+ * minimal input on which they still differ, which is reported together with
+ * the seed of the original input.
+ *
+ * Testing happens in rounds. Each round first generates inputs and computes
+ * the expected outputs with the permissions of the checker, so the generator,
+ * reference implementation and shrinker may use any Java feature. Only then is
+ * the security manager installed to run the student code on these inputs.
+ * Inputs on which the generator or the reference implementation throw an
+ * exception are considered invalid and skipped.
+ *
+ * @author Sander Verdonschot <sander.verdonschot at gmail.com>
+ */
+public class DifferentialTest<I, O> extends Test {
+
+    private static final int MAX_DESCRIPTION_LENGTH = 1000; // Longer inputs and outputs are truncated in the result
+    private static final int MAX_ROUND_SIZE = 4096; // The number of inputs kept in memory at once
+
+    private final int marks;
+    private final Generator<I> generator;
+    private final Implementation<I, O> reference;
+    private final Implementation<I, O> student;
+    private Shrinker<I> shrinker = null;
+    private Equivalence<O> equivalence = null; // Objects.deepEquals
+    private long seed = new Random().nextLong();
+    private long maxCases = Long.MAX_VALUE;
+    private int threads = Runtime.getRuntime().availableProcessors();
+
+    public DifferentialTest(String name, int marks, Generator<I> generator, Implementation<I, O> reference, Implementation<I, O> student) {
+        super(name);
+        this.marks = marks;
+        this.generator = generator;
+        this.reference = reference;
+        this.student = student;
+    }
+
+    @Override
+    public TestResult run(int timePerTest, Checker checker) {
+        long start = System.currentTimeMillis();
+        long generationDeadline = start + timePerTest * 3 / 4; // No new inputs are tested after this time
+        long shrinkDeadline = start + timePerTest * 9 / 10; // No new shrink candidates are tested after this time
+        long deadline = start + timePerTest;
+
+        long nextIndex = 0; // The index of the next input to generate
+        long cases = 0;
+        long invalidCases = 0;
+        int roundSize = threads;
+        Failure failure = null;
+        Round round = null;
+
+        while (failure == null && nextIndex < maxCases && System.currentTimeMillis() < generationDeadline) {
+            Preparation preparation = new Preparation(null, nextIndex, (int) Math.min(roundSize, maxCases - nextIndex), generationDeadline);
+            preparation.run(deadline);
+            nextIndex += preparation.getClaimed();
+            cases += preparation.completed.get();
+            invalidCases += preparation.completed.get() - preparation.getCases().size();
+
+            round = check(preparation.getCases(), generationDeadline, deadline, checker);
+            failure = round.getFailure();
+
+            if (round.stuck >= 0 || !round.released) {
+                break;
+            }
+
+            roundSize = Math.min(2 * roundSize, MAX_ROUND_SIZE);
+        }
+
+        if (failure != null && round.released) {
+            failure = shrink(failure, shrinkDeadline, deadline, checker);
+        }
+
+        checker.getErr().printf("Tested %s on %d random inputs in %f seconds.%n", getName(), cases, (System.currentTimeMillis() - start) / 1000.0);
+
+        if (failure != null) {
+            return failure.getResult();
+        } else if (round != null && round.stuck >= 0) {
+            return fail(String.format("Time limit (%.0fs) exceeded for %s on the input with seed %d.", timePerTest / 1000.0, getName(), round.cases.get(round.stuck).seed), null);
+        } else if (cases == invalidCases) {
+            return fail(String.format("No valid inputs were generated for %s.", getName()), null);
+        } else {
+            return new TestResult(marks, marks, null);
+        }
+    }
+
+    /**
+     * Runs the student code on the given inputs in parallel, under the
+     * security manager. Student code is not started on new inputs after the
+     * stop time, and is stopped at the deadline.
+     */
+    @SuppressWarnings("removal")
+    private Round check(List<Case> cases, long stopTime, long deadline, Checker checker) {
+        Round round = new Round(cases, stopTime);
+
+        if (cases.isEmpty()) {
+            return round;
+        }
+
+        // Don't allow student code to do anything harmful
+        StudentSecurityManager.SharedSecret secret = new StudentSecurityManager.SharedSecret();
+        StudentSecurityManager sm = new StudentSecurityManager(checker, secret);
+        ThreadGroup group = new ThreadGroup("DifferentialTestThreads");
+        Thread[] testers = new Thread[Math.min(threads, cases.size())];
+
+        for (int i = 0; i < testers.length; i++) {
+            testers[i] = new Thread(group, new Tester(round, i), "DifferentialTestThread-" + i);
+            testers[i].setContextClassLoader(checker.getStudentClassLoader());
+        }
+
+        System.setSecurityManager(sm);
+
+        for (Thread tester : testers) {
+            tester.start();
+        }
+
+        for (int i = 0; i < testers.length; i++) {
+            long remaining = deadline - System.currentTimeMillis();
+
+            try {
+                if (remaining > 0) {
+                    testers[i].join(remaining);
+                }
+            } catch (InterruptedException e) {
+            }
+
+            if (testers[i].isAlive() && round.stuck < 0) {
+                round.stuck = round.current.get(i);
+            }
+        }
+
+        // Stops the testers and any threads started by student code
+        round.released = AtomicTest.stopThreads(group, checker, sm, secret);
+        return round;
+    }
+
+    /**
+     * Greedily replaces the failing input by the first smaller variant that
+     * still fails, until no variant fails or time runs out.
+     */
+    private Failure shrink(Failure failure, long shrinkDeadline, long deadline, Checker checker) {
+        if (shrinker == null) {
+            return failure;
+        }
+
+        while (System.currentTimeMillis() < shrinkDeadline) {
+            List<I> candidates;
+
+            try {
+                candidates = shrinker.shrink(failure.input);
+            } catch (Throwable e) {
+                return failure;
+            }
+
+            if (candidates == null || candidates.isEmpty()) {
+                return failure;
+            }
+
+            Preparation preparation = new Preparation(candidates, 0, candidates.size(), shrinkDeadline);
+            preparation.run(deadline);
+            Round round = check(preparation.getCases(), shrinkDeadline, deadline, checker);
+            Failure smaller = round.getFailure();
+
+            if (smaller != null) {
+                failure = new Failure(failure.seed, failure.original, smaller.input, smaller.expected, smaller.actual, failure.steps + 1);
+            }
+
+            if (smaller == null || round.stuck >= 0 || !round.released) {
+                return failure;
+            }
+        }
+
+        return failure;
+    }
+
+    /**
+     * Derives the seed of a single input from the seed of the test, so that
+     * consecutive inputs are not correlated.
+     */
+    private static long caseSeed(long seed, long index) {
+        long z = seed + (index + 1) * 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    private TestResult fail(String comment, String details) {
+        return new TestResult(0, marks, comment, details);
+    }
+
+    private static String describe(Object o) {
+        String description;
+
+        if (o instanceof Object[]) {
+            description = Arrays.deepToString((Object[]) o);
+        } else if (o != null && o.getClass().isArray()) {
+            description = Arrays.deepToString(new Object[]{o});
+            description = description.substring(1, description.length() - 1);
+        } else {
+            description = String.valueOf(o);
+        }
+
+        if (description.length() > MAX_DESCRIPTION_LENGTH) {
+            description = description.substring(0, MAX_DESCRIPTION_LENGTH) + "...";
+        }
+
+        return description;
+    }
+
+    public int getMarks() {
+        return marks;
+    }
+
+    /**
+     * Sets the function that proposes smaller versions of a failing input. If
+     * none is set, failing inputs are reported as generated.
+     *
+     * @param shrinker
+     */
+    public void setShrinker(Shrinker<I> shrinker) {
+        this.shrinker = shrinker;
+    }
+
+    /**
+     * Sets how outputs are compared. By default, outputs are equal if
+     * Objects.deepEquals considers them equal. As the comparison handles
+     * student output, it runs under the security manager, so it cannot use
+     * lambdas, method references or streams.
+     *
+     * @param equivalence
+     */
+    public void setEquivalence(Equivalence<O> equivalence) {
+        this.equivalence = equivalence;
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    /**
+     * Sets the seed from which all inputs are derived. By default, a random
+     * seed is chosen, so every run tests different inputs.
+     *
+     * @param seed
+     */
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+
+    public void setMaxCases(long maxCases) {
+        this.maxCases = maxCases;
+    }
+
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    public interface Generator<I> {
+
+        /**
+         * Generates an input using only the given source of randomness, so
+         * that the same seed always produces the same input.
+         */
+        I generate(Random random);
+    }
+
+    public interface Implementation<I, O> {
+
+        O apply(I input) throws Exception;
+    }
+
+    public interface Shrinker<I> {
+
+        /**
+         * Returns smaller variants of the given input, most promising first.
+         */
+        List<I> shrink(I input);
+    }
+
+    public interface Equivalence<O> {
+
+        boolean equivalent(O expected, O actual);
+    }
+
+    /**
+     * An input together with the output of the reference implementation.
+     */
+    private class Case {
+
+        final long seed;
+        final I input;
+        final O expected;
+
+        Case(long seed, I input, O expected) {
+            this.seed = seed;
+            this.input = input;
+            this.expected = expected;
+        }
+    }
+
+    /**
+     * Generates inputs, or takes given ones, and computes their expected
+     * outputs on threads with the permissions of the checker.
+     */
+    private class Preparation implements Runnable {
+
+        private final List<I> inputs; // Null to generate the inputs
+        private final long firstIndex; // The index of the first generated input
+        private final int size;
+        private final long stopTime; // No new inputs are started after this time
+        private final AtomicInteger next = new AtomicInteger();
+        private final AtomicInteger completed = new AtomicInteger();
+        private final AtomicReferenceArray<Case> cases;
+
+        Preparation(List<I> inputs, long firstIndex, int size, long stopTime) {
+            this.inputs = inputs;
+            this.firstIndex = firstIndex;
+            this.size = size;
+            this.stopTime = stopTime;
+            cases = new AtomicReferenceArray<>(size);
+        }
+
+        /**
+         * Prepares the inputs on all threads, stopping them at the deadline
+         * if the generator or the reference implementation does not finish.
+         */
+        void run(long deadline) {
+            Thread[] preparers = new Thread[Math.min(threads, size)];
+
+            for (int i = 0; i < preparers.length; i++) {
+                preparers[i] = new Thread(this, "DifferentialTestPreparation-" + i);
+                preparers[i].start();
+            }
+
+            for (Thread preparer : preparers) {
+                long remaining = deadline - System.currentTimeMillis();
+
+                try {
+                    if (remaining > 0) {
+                        preparer.join(remaining);
+                    }
+                } catch (InterruptedException e) {
+                }
+
+                if (preparer.isAlive()) {
+                    AtomicTest.stop(preparer);
+                }
+            }
+        }
+
+        @Override
+        public void run() {
+            while (System.currentTimeMillis() < stopTime) {
+                int i = next.getAndIncrement();
+
+                if (i >= size) {
+                    return;
+                }
+
+                long caseSeed = (inputs == null ? caseSeed(seed, firstIndex + i) : seed);
+
+                try {
+                    I input = (inputs == null ? generator.generate(new Random(caseSeed)) : inputs.get(i));
+                    cases.set(i, new Case(caseSeed, input, reference.apply(input)));
+                } catch (ThreadDeath e) {
+                    throw e;
+                } catch (Throwable e) {
+                    // The generator or the reference implementation rejected this input
+                }
+
+                completed.incrementAndGet();
+            }
+        }
+
+        /**
+         * Returns the number of inputs that were started.
+         */
+        int getClaimed() {
+            return Math.min(next.get(), size);
+        }
+
+        /**
+         * Returns the valid inputs, in order.
+         */
+        List<Case> getCases() {
+            List<Case> result = new ArrayList<>();
+
+            for (int i = 0; i < size; i++) {
+                if (cases.get(i) != null) {
+                    result.add(cases.get(i));
+                }
+            }
+
+            return result;
+        }
+    }
+
+    /**
+     * The results of running the student code on one list of inputs.
+     */
+    private class Round {
+
+        final List<Case> cases;
+        final long stopTime; // No new inputs are started after this time
+        final AtomicInteger next = new AtomicInteger();
+        final AtomicInteger firstFailure = new AtomicInteger(Integer.MAX_VALUE); // Inputs after this one are skipped
+        final AtomicReferenceArray<Failure> failures;
+        final AtomicIntegerArray current; // The input each tester is working on
+        int stuck = -1; // An input on which the student code did not finish
+        boolean released = true; // Whether the security manager was removed afterwards
+
+        Round(List<Case> cases, long stopTime) {
+            this.cases = cases;
+            this.stopTime = stopTime;
+            failures = new AtomicReferenceArray<>(cases.size());
+            current = new AtomicIntegerArray(threads);
+        }
+
+        /**
+         * Returns the failure on the first input on which the outputs differ.
+         * Must only be called after all testers have stopped.
+         */
+        Failure getFailure() {
+            int first = firstFailure.get();
+            return first < cases.size() ? failures.get(first) : null;
+        }
+
+        void addFailure(int index, Failure failure) {
+            failures.set(index, failure);
+            int first = firstFailure.get();
+
+            // Runs under the security manager, which does not allow lambdas
+            while (index < first && !firstFailure.compareAndSet(first, index)) {
+                first = firstFailure.get();
+            }
+        }
+    }
+
+    /**
+     * A difference between the outputs of the reference and the student.
+     */
+    private class Failure {
+
+        final long seed;
+        final I original;
+        final I input;
+        final String expected;
+        final String actual;
+        final int steps; // The number of times the original input was shrunk
+
+        Failure(long seed, I original, I input, String expected, String actual, int steps) {
+            this.seed = seed;
+            this.original = original;
+            this.input = input;
+            this.expected = expected;
+            this.actual = actual;
+            this.steps = steps;
+        }
+
+        TestResult getResult() {
+            String comment = String.format("Output for %s differs from the reference on input %s (seed %d).", getName(), describe(input), seed);
+            StringBuilder details = new StringBuilder();
+            details.append(String.format("Expected: %s%nActual: %s", expected, actual));
+
+            if (steps > 0) {
+                details.append(String.format("%nShrunk in %d steps from the generated input: %s", steps, describe(original)));
+            }
+
+            return fail(comment, details.toString());
+        }
+    }
+
+    /**
+     * Runs the student code on the inputs of a round, under the security
+     * manager.
+     */
+    private class Tester implements Runnable {
+
+        private final Round round;
+        private final int index;
+
+        Tester(Round round, int index) {
+            this.round = round;
+            this.index = index;
+        }
+
+        @Override
+        public void run() {
+            while (System.currentTimeMillis() < round.stopTime) {
+                int i = round.next.getAndIncrement();
+
+                if (i >= round.cases.size() || i > round.firstFailure.get()) {
+                    return;
+                }
+
+                round.current.set(index, i);
+                Failure failure = test(round.cases.get(i));
+
+                if (failure != null) {
+                    round.addFailure(i, failure);
+                }
+            }
+        }
+
+        /**
+         * Runs the student implementation on the input.
+         *
+         * @return null if the output is equal to the expected output, and the
+         * difference otherwise
+         */
+        private Failure test(Case c) {
+            O actual;
+
+            try {
+                actual = student.apply(c.input);
+            } catch (StudentSecurityManager.ExitTrappedException e) {
+                return new Failure(c.seed, c.input, c.input, describe(c.expected), "System.exit() was called", 0);
+            } catch (ThreadDeath e) {
+                throw e;
+            } catch (Throwable e) {
+                return new Failure(c.seed, c.input, c.input, describe(c.expected), e.toString(), 0);
+            }
+
+            boolean equal;
+
+            try {
+                equal = (equivalence == null ? Objects.deepEquals(c.expected, actual) : equivalence.equivalent(c.expected, actual));
+            } catch (ThreadDeath e) {
+                throw e;
+            } catch (Throwable e) {
+                // Student output that breaks the comparison is not equal
+                equal = false;
+            }
+
+            if (equal) {
+                return null;
+            }
+
+            String description;
+
+            try {
+                description = describe(actual);
+            } catch (ThreadDeath e) {
+                throw e;
+            } catch (Throwable e) {
+                description = "toString() threw " + e;
+            }
+
+            return new Failure(c.seed, c.input, c.input, describe(c.expected), description, 0);
+        }
+    }
+}
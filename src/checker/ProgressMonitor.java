@@ -0,0 +1,164 @@
+/*
+ * Copyright 2014 Sander Verdonschot <sander.verdonschot at gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package checker;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * Detects tests that can no longer finish: either some of their threads are
+ * deadlocked, or all of their threads have been blocked or waiting without
+ * using any CPU time for a while. The threads of a test are the threads in
+ * its thread group, which includes all threads started by the test.
+ *
+ * @author Sander Verdonschot <sander.verdonschot at gmail.com>
+ */
+class ProgressMonitor {
+
+    enum Status {
+        RUNNING, DEADLOCKED, NO_PROGRESS
+    }
+
+    // Obtained before any test runs, as loading the management library is not allowed for students
+    private static final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+    static {
+        // The first thread dump reads system properties on Java 9 and later, which students may not do
+        threads.getThreadInfo(new long[]{Thread.currentThread().getId()}, threads.isObjectMonitorUsageSupported(), threads.isSynchronizerUsageSupported())[0].toString();
+    }
+
+    private final ThreadGroup group;
+    private final boolean detectDeadlocks;
+    private final int idleWindow;
+    private long idleSince;
+    private long lastCpuTime = -1;
+
+    /**
+     * @param group the thread group of the test
+     * @param detectDeadlocks
+     * @param idleWindow the time in milliseconds that all threads need to be
+     * blocked or waiting without progress, or 0 to never report this
+     */
+    ProgressMonitor(ThreadGroup group, boolean detectDeadlocks, int idleWindow) {
+        this.group = group;
+        this.detectDeadlocks = detectDeadlocks;
+        this.idleWindow = idleWindow;
+        idleSince = System.currentTimeMillis();
+    }
+
+    /**
+     * Checks whether the threads of the test can still make progress. This
+     * should be called periodically while the test runs.
+     *
+     * @return
+     */
+    Status check() {
+        Thread[] testThreads = getThreads();
+
+        if (testThreads.length == 0) {
+            return Status.RUNNING;
+        }
+
+        if (detectDeadlocks && isDeadlocked(testThreads)) {
+            return Status.DEADLOCKED;
+        }
+
+        if (idleWindow <= 0) {
+            return Status.RUNNING;
+        }
+
+        boolean waiting = true;
+        long cpuTime = 0;
+
+        for (Thread thread : testThreads) {
+            Thread.State state = thread.getState();
+            waiting &= (state == Thread.State.BLOCKED || state == Thread.State.WAITING);
+            cpuTime += Math.max(0, threads.isThreadCpuTimeEnabled() ? threads.getThreadCpuTime(thread.getId()) : 0);
+        }
+
+        long now = System.currentTimeMillis();
+
+        if (!waiting || cpuTime != lastCpuTime) {
+            idleSince = now;
+            lastCpuTime = cpuTime;
+            return Status.RUNNING;
+        }
+
+        return now - idleSince >= idleWindow ? Status.NO_PROGRESS : Status.RUNNING;
+    }
+
+    /**
+     * Returns the stacks of all threads of the test, with the locks they hold
+     * and wait for. This is called while the security manager of the test is
+     * installed, so any failure is reported in the dump instead of thrown.
+     *
+     * @return
+     */
+    String getThreadDump() {
+        try {
+            return dumpThreads();
+        } catch (Throwable e) {
+            return "Thread dump unavailable: " + e;
+        }
+    }
+
+    private String dumpThreads() {
+        Thread[] testThreads = getThreads();
+        long[] ids = new long[testThreads.length];
+
+        for (int i = 0; i < testThreads.length; i++) {
+            ids[i] = testThreads[i].getId();
+        }
+
+        StringBuilder dump = new StringBuilder();
+
+        for (ThreadInfo info : threads.getThreadInfo(ids, threads.isObjectMonitorUsageSupported(), threads.isSynchronizerUsageSupported())) {
+            if (info != null) {
+                dump.append(info.toString());
+            }
+        }
+
+        return dump.toString();
+    }
+
+    /**
+     * Returns the live threads of the test.
+     *
+     * @return
+     */
+    Thread[] getThreads() {
+        return AtomicTest.getThreads(group);
+    }
+
+    private boolean isDeadlocked(Thread[] testThreads) {
+        long[] deadlocked = threads.isSynchronizerUsageSupported() ? threads.findDeadlockedThreads() : threads.findMonitorDeadlockedThreads();
+
+        if (deadlocked == null) {
+            return false;
+        }
+
+        for (long id : deadlocked) {
+            for (Thread thread : testThreads) {
+                if (thread.getId() == id) {
+                    return true;
+                }
+            }
+        }
+
+        return false;
+    }
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright 2014 Sander Verdonschot <sander.verdonschot at gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package checker;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Periodically samples the stack of a test thread, to show where student code
+ * spends its time. Only frames of student classes are recorded: frames of the
+ * JDK, the checker and the test suite are skipped. Stacks can only be taken
+ * at safepoints, so tight loops may be attributed to a nearby frame.
+ *
+ * @author Sander Verdonschot <sander.verdonschot at gmail.com>
+ */
+class StackSampler implements Runnable {
+
+    private static final String[] NON_STUDENT_PREFIXES = {"java.", "javax.", "jdk.", "sun.", "com.sun.", "checker."};
+    private static final int MAX_STACK_DEPTH = 32; // The number of student frames kept per sample
+    private static final int MAX_ENTRIES = 10; // The number of lines in each part of the summary
+
+    private final Thread target;
+    private final int interval;
+    private final String suiteClass; // The top-level class that declares the test
+    private final Map<String, Integer> methodCounts = new HashMap<>();
+    private final Map<String, Integer> stackCounts = new HashMap<>();
+    private final Thread samplerThread;
+    private volatile boolean stopped = false;
+    private int samples = 0;
+
+    /**
+     * @param target the thread to sample
+     * @param interval the time between samples, in milliseconds
+     * @param testClass the name of the test class. Frames of its top-level
+     * class and all classes nested in it are skipped, as tests are usually
+     * anonymous classes in a test suite.
+     */
+    StackSampler(Thread target, int interval, String testClass) {
+        this.target = target;
+        this.interval = interval;
+        int nested = testClass.indexOf('$');
+        suiteClass = (nested < 0 ? testClass : testClass.substring(0, nested));
+        samplerThread = new Thread(this, "StackSampler");
+        samplerThread.setDaemon(true);
+    }
+
+    void start() {
+        samplerThread.start();
+    }
+
+    /**
+     * Stops sampling and waits for the last sample to be recorded.
+     */
+    void stop() {
+        stopped = true;
+        samplerThread.interrupt();
+
+        try {
+            samplerThread.join();
+        } catch (InterruptedException ex) {
+        }
+    }
+
+    @Override
+    public void run() {
+        while (!stopped && target.isAlive()) {
+            record(target.getStackTrace());
+
+            try {
+                Thread.sleep(interval);
+            } catch (InterruptedException e) {
+            }
+        }
+    }
+
+    private void record(StackTraceElement[] stack) {
+        if (stack.length == 0) {
+            return; // The thread has finished
+        }
+
+        samples++;
+
+        // The stack is ordered from the innermost frame outwards
+        List<String> studentFrames = new ArrayList<>();
+
+        for (int i = 0; i < stack.length && studentFrames.size() < MAX_STACK_DEPTH; i++) {
+            if (isStudentClass(stack[i].getClassName())) {
+                if (studentFrames.isEmpty()) {
+                    increment(methodCounts, stack[i].toString());
+                }
+
+                studentFrames.add(stack[i].getClassName() + "." + stack[i].getMethodName());
+            }
+        }
+
+        if (studentFrames.isEmpty()) {
+            increment(methodCounts, "(outside student code)");
+            return;
+        }
+
+        // Collapsed stack format, outermost frame first, as used by flame graph tools
+        Collections.reverse(studentFrames);
+        increment(stackCounts, String.join(";", studentFrames));
+    }
+
+    /**
+     * Samples are recorded while the student security manager is active, so
+     * this avoids lambdas, which it does not permit to be bootstrapped.
+     */
+    private static void increment(Map<String, Integer> counts, String key) {
+        Integer count = counts.get(key);
+        counts.put(key, count == null ? 1 : count + 1);
+    }
+
+    private boolean isStudentClass(String className) {
+        for (String prefix : NON_STUDENT_PREFIXES) {
+            if (className.startsWith(prefix)) {
+                return false;
+            }
+        }
+
+        return !className.equals(suiteClass) && !className.startsWith(suiteClass + "$");
+    }
+
+    /**
+     * Returns the most frequently sampled student code locations and stacks.
+     * Must only be called after sampling has stopped.
+     *
+     * @return
+     */
+    String getSummary() {
+        if (samples == 0) {
+            return null;
+        }
+
+        StringBuilder summary = new StringBuilder();
+        summary.append(String.format("Profile of %d samples taken every %d ms.%n", samples, interval));
+        summary.append(String.format("Hot spots (innermost student frame):%n"));
+        appendTop(summary, methodCounts);
+
+        if (!stackCounts.isEmpty()) {
+            summary.append(String.format("Hot stacks:%n"));
+            appendTop(summary, stackCounts);
+        }
+
+        return summary.toString();
+    }
+
+    private void appendTop(StringBuilder summary, Map<String, Integer> counts) {
+        List<Map.Entry<String, Integer>> entries = new ArrayList<>(counts.entrySet());
+        Collections.sort(entries, new Comparator<Map.Entry<String, Integer>>() {
+            @Override
+            public int compare(Map.Entry<String, Integer> e1, Map.Entry<String, Integer> e2) {
+                return Integer.compare(e2.getValue(), e1.getValue());
+            }
+        });
+
+        for (Map.Entry<String, Integer> entry : entries.subList(0, Math.min(MAX_ENTRIES, entries.size()))) {
+            summary.append(String.format("  %5.1f%%  %s%n", 100.0 * entry.getValue() / samples, entry.getKey()));
+        }
+    }
+}
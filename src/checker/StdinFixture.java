@@ -0,0 +1,182 @@
+/*
+ * Copyright 2014 Sander Verdonschot <sander.verdonschot at gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package checker;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Input that can be supplied to student code through System.in. The contents
+ * are memory-mapped read-only, so they are never copied onto the heap, and a
+ * single fixture can be shared by every test and every submission in the
+ * process. Fixtures should be created before the tests are run, as the student
+ * security manager does not allow the checker to create or read arbitrary
+ * files while a test is running.
+ *
+ * @author Sander Verdonschot <sander.verdonschot at gmail.com>
+ */
+public class StdinFixture {
+
+    private static final Map<String, StdinFixture> cache = new ConcurrentHashMap<>();
+    static final StdinFixture EMPTY = new StdinFixture(ByteBuffer.allocate(0));
+
+    private final ByteBuffer contents;
+
+    private StdinFixture(ByteBuffer contents) {
+        this.contents = contents;
+    }
+
+    /**
+     * Maps the given file into memory.
+     *
+     * @param file
+     * @return
+     * @throws IOException
+     */
+    public static StdinFixture fromFile(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Input file \"" + file + "\" is too large to be mapped.");
+            }
+
+            return new StdinFixture(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    /**
+     * Returns the fixture with the given name, generating it if this is the
+     * first request for that name in this process. The generator writes the
+     * input to a temporary file, which is then mapped into memory and deleted
+     * when the JVM exits.
+     *
+     * @param name
+     * @param generator
+     * @return
+     * @throws IOException
+     */
+    public static StdinFixture get(String name, Generator generator) throws IOException {
+        StdinFixture fixture = cache.get(name);
+
+        if (fixture == null) {
+            synchronized (cache) {
+                fixture = cache.get(name);
+
+                if (fixture == null) {
+                    fixture = generate(generator);
+                    cache.put(name, fixture);
+                }
+            }
+        }
+
+        return fixture;
+    }
+
+    private static StdinFixture generate(Generator generator) throws IOException {
+        Path file = Files.createTempFile("checker-stdin", ".txt");
+        file.toFile().deleteOnExit();
+
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(file))) {
+            generator.generate(out);
+        }
+
+        return fromFile(file);
+    }
+
+    /**
+     * Returns a new stream over the contents of this fixture, positioned at
+     * the start. This does not copy the contents.
+     *
+     * @return
+     */
+    public InputStream newStream() {
+        return new BufferInputStream(contents.duplicate());
+    }
+
+    public int size() {
+        return contents.capacity();
+    }
+
+    public interface Generator {
+
+        void generate(OutputStream out) throws IOException;
+    }
+
+    private static class BufferInputStream extends InputStream {
+
+        private final ByteBuffer buffer;
+        private int markPosition = 0;
+
+        BufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) {
+                return 0;
+            }
+
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+
+            int n = Math.min(len, buffer.remaining());
+            buffer.get(b, off, n);
+            return n;
+        }
+
+        @Override
+        public long skip(long n) {
+            int skipped = (int) Math.max(0, Math.min(n, buffer.remaining()));
+            buffer.position(buffer.position() + skipped);
+            return skipped;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+
+        @Override
+        public boolean markSupported() {
+            return true;
+        }
+
+        @Override
+        public synchronized void mark(int readlimit) {
+            markPosition = buffer.position();
+        }
+
+        @Override
+        public synchronized void reset() {
+            buffer.position(markPosition);
+        }
+    }
+}
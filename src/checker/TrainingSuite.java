@@ -0,0 +1,124 @@
+/*
+ * Copyright 2014 Sander Verdonschot <sander.verdonschot at gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package checker;
+
+import checker.util.FileContentsChecker;
+import checker.util.OutputReader;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+/**
+ * A small suite that exercises the parts of the checker that a typical test
+ * suite uses. The build runs it to record which classes to put in the class
+ * data sharing archive.
+ *
+ * @author Sander Verdonschot <sander.verdonschot at gmail.com>
+ */
+public class TrainingSuite {
+
+    private static final int COUNT = 10000;
+
+    public static void main(String[] args) throws Exception {
+        final Path dir = Files.createTempDirectory("checker-training");
+        dir.toFile().deleteOnExit();
+
+        final File solution = dir.resolve("solution.txt").toFile();
+        solution.deleteOnExit();
+        dir.resolve("output.txt").toFile().deleteOnExit();
+
+        try (PrintWriter out = new PrintWriter(solution)) {
+            for (int i = 0; i < COUNT; i++) {
+                out.println(i / 2.0);
+            }
+        }
+
+        Path javaHome = Paths.get(System.getProperty("java.home"));
+        Checker checker = new Checker(Arrays.asList(dir, javaHome), Arrays.asList(dir), 10000);
+        checker.initialize();
+
+        checker.setInput(StdinFixture.get("training", out -> {
+            for (int i = 0; i < COUNT; i++) {
+                out.write((i + "\n").getBytes());
+            }
+        }));
+
+        checker.runTest(new AtomicTest("output", 1) {
+            @Override
+            public TestResult test(Checker checker) throws Exception {
+                for (int i = 0; i < COUNT; i++) {
+                    System.out.println(i);
+                }
+
+                OutputReader reader = checker.getOutputReader();
+                long sum = 0;
+
+                while (reader.hasNext()) {
+                    sum += reader.nextLong();
+                }
+
+                myAssert(sum == (long) COUNT * (COUNT - 1) / 2, "Incorrect sum.");
+                return new TestResult(1, 1, null);
+            }
+        });
+
+        checker.runTest(new AtomicTest("input", 1) {
+            @Override
+            public TestResult test(Checker checker) throws Exception {
+                BufferedReader in = new BufferedReader(new InputStreamReader(System.in));
+                int lines = 0;
+
+                while (in.readLine() != null) {
+                    lines++;
+                }
+
+                myAssert(lines == COUNT, "Incorrect number of lines.");
+                return new TestResult(1, 1, null);
+            }
+        });
+
+        checker.runTest(new AtomicTest("files", 1) {
+            @Override
+            public TestResult test(Checker checker) throws Exception {
+                File output = dir.resolve("output.txt").toFile();
+
+                try (PrintWriter out = new PrintWriter(output)) {
+                    for (int i = 0; i < COUNT; i++) {
+                        out.printf("%.3f%n", i / 2.0);
+                    }
+                }
+
+                String problem = FileContentsChecker.checkNumericEquality(output, solution, 1e-9, 1e-9);
+                myAssert(problem == null, problem);
+                return new TestResult(1, 1, null);
+            }
+        });
+
+        checker.runTest(new AtomicTest("exception", 1) {
+            @Override
+            public TestResult test(Checker checker) throws Exception {
+                throw new IllegalStateException("Expected failure.");
+            }
+        });
+
+        checker.finish();
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright 2014 Sander Verdonschot <sander.verdonschot at gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package checker.compile;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * The outcome of compiling one submission: the bytes of every class that was
+ * produced, or the diagnostics that explain why compilation failed.
+ *
+ * @author Sander Verdonschot <sander.verdonschot at gmail.com>
+ */
+public class CompilationResult {
+
+    private final boolean success;
+    private final Map<String, byte[]> classes;
+    private final String diagnostics;
+
+    CompilationResult(boolean success, Map<String, byte[]> classes, String diagnostics) {
+        this.success = success;
+        this.classes = Collections.unmodifiableMap(classes);
+        this.diagnostics = diagnostics;
+    }
+
+    public boolean isSuccess() {
+        return success;
+    }
+
+    /**
+     * Returns the compiled classes, by binary name.
+     *
+     * @return
+     */
+    public Map<String, byte[]> getClasses() {
+        return classes;
+    }
+
+    /**
+     * Returns the errors and warnings reported by the compiler, one per line.
+     *
+     * @return
+     */
+    public String getDiagnostics() {
+        return diagnostics;
+    }
+
+    /**
+     * Returns a new class loader for the compiled classes. Every submission
+     * needs its own loader, even if its classes came from the cache. This must
+     * be called before the tests are run, as students are not allowed to
+     * create class loaders.
+     *
+     * @param parent the loader of the test suite, to which lookups of all
+     * other classes are delegated
+     * @return
+     */
+    public ClassLoader createClassLoader(ClassLoader parent) {
+        return new MemoryClassLoader(classes, parent);
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright 2014 Sander Verdonschot <sander.verdonschot at gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package checker.compile;
+
+import checker.Checker;
+import checker.Test;
+import checker.TestResult;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * Reports the outcome of compiling a submission. If compilation succeeded, the
+ * compiled classes are installed as the student classes of the checker, so the
+ * tests that follow can load them. Call SubmissionCompiler.awaitCompletion
+ * before running any test, as compilations that are still in progress are
+ * subject to the security manager of the running test.
+ *
+ * @author Sander Verdonschot <sander.verdonschot at gmail.com>
+ */
+public class CompilationTest extends Test {
+
+    private final int marks;
+    private final Future<CompilationResult> compilation;
+
+    public CompilationTest(String name, int marks, Future<CompilationResult> compilation) {
+        super(name);
+        this.marks = marks;
+        this.compilation = compilation;
+    }
+
+    @Override
+    public TestResult run(int timePerTest, Checker checker) {
+        CompilationResult result;
+
+        try {
+            result = compilation.get();
+        } catch (InterruptedException | ExecutionException e) {
+            return new TestResult(0, marks, String.format("Compilation of %s could not be completed.", getName()), e.toString());
+        }
+
+        if (!result.isSuccess()) {
+            return new TestResult(0, marks, String.format("Compilation failed for %s.", getName()), result.getDiagnostics());
+        }
+
+        checker.setStudentClassLoader(result.createClassLoader(getClass().getClassLoader()));
+        return new TestResult(marks, marks, null, result.getDiagnostics().isEmpty() ? null : result.getDiagnostics());
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright 2014 Sander Verdonschot <sander.verdonschot at gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package checker.compile;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.charset.Charset;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+
+/**
+ * A file manager that keeps compiled classes in memory instead of writing them
+ * to disk. Classes on the class path are still read through the standard file
+ * manager.
+ *
+ * @author Sander Verdonschot <sander.verdonschot at gmail.com>
+ */
+class MemoryFileManager extends ForwardingJavaFileManager<StandardJavaFileManager> {
+
+    private final Map<String, byte[]> classes = new ConcurrentHashMap<>();
+
+    MemoryFileManager(StandardJavaFileManager fileManager) {
+        super(fileManager);
+    }
+
+    /**
+     * Returns the classes compiled so far, by binary name.
+     *
+     * @return
+     */
+    Map<String, byte[]> getClasses() {
+        return classes;
+    }
+
+    @Override
+    public JavaFileObject getJavaFileForOutput(Location location, final String className, JavaFileObject.Kind kind, FileObject sibling) {
+        return new SimpleJavaFileObject(uri(className.replace('.', '/') + kind.extension), kind) {
+            @Override
+            public OutputStream openOutputStream() {
+                return new ByteArrayOutputStream() {
+                    @Override
+                    public void close() {
+                        classes.put(className, toByteArray());
+                    }
+                };
+            }
+        };
+    }
+
+    private static URI uri(String path) {
+        try {
+            return new URI("memory", null, "/" + path, null);
+        } catch (URISyntaxException e) {
+            throw new IllegalArgumentException("Invalid file name: " + path, e);
+        }
+    }
+
+    /**
+     * A source file whose contents are already in memory.
+     */
+    static class Source extends SimpleJavaFileObject {
+
+        private final String contents;
+
+        Source(String path, byte[] contents, Charset charset) {
+            super(uri(path.replace('\\', '/')), JavaFileObject.Kind.SOURCE);
+            this.contents = new String(contents, charset);
+        }
+
+        @Override
+        public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+            return contents;
+        }
+    }
+}
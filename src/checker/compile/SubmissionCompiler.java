@@ -0,0 +1,342 @@
+/*
+ * Copyright 2014 Sander Verdonschot <sander.verdonschot at gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package checker.compile;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryNotEmptyException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.ToolProvider;
+
+/**
+ * Compiles submissions in this JVM, without writing class files to disk. All
+ * submissions share one compiler and are compiled concurrently. Results are
+ * cached by a digest of the sources, so identical submissions are only
+ * compiled once.
+ *
+ * The in-memory cache and the compilation threads only span the submissions
+ * compiled by one JVM. Checker.finish exits the JVM, so a grader normally
+ * handles a single submission, as with checker.queue.Worker. To share results
+ * between grader runs, set a cache directory.
+ *
+ * Compilation runs on separate threads, which are subject to the security
+ * manager of any test that is running at the same time. All compilations must
+ * therefore finish before the first test runs: call awaitCompletion first.
+ *
+ * @author Sander Verdonschot <sander.verdonschot at gmail.com>
+ */
+public class SubmissionCompiler {
+
+    private final JavaCompiler compiler;
+    private final List<String> options;
+    private final Charset charset;
+    private final ExecutorService executor;
+    private final Map<String, Future<CompilationResult>> cache = new ConcurrentHashMap<>();
+    private volatile Path cacheDirectory = null; // Results are only cached in memory
+
+    /**
+     * Creates a compiler that uses the class path of this JVM, so submissions
+     * can refer to classes of the test suite.
+     *
+     * @param threads the number of submissions to compile at the same time
+     */
+    public SubmissionCompiler(int threads) {
+        this(threads, new ArrayList<String>(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @param threads the number of submissions to compile at the same time
+     * @param options additional javac options
+     * @param charset the encoding of the source files
+     */
+    public SubmissionCompiler(int threads, List<String> options, Charset charset) {
+        compiler = ToolProvider.getSystemJavaCompiler();
+
+        if (compiler == null) {
+            throw new IllegalStateException("No Java compiler is available. Run the checker on a JDK instead of a JRE.");
+        }
+
+        this.options = new ArrayList<>();
+        this.options.add("-classpath");
+        this.options.add(System.getProperty("java.class.path"));
+        this.options.add("-proc:none");
+        this.options.addAll(options);
+        this.charset = charset;
+        executor = Executors.newFixedThreadPool(threads);
+    }
+
+    /**
+     * Compiles all .java files in the given directory and its subdirectories.
+     * The sources are read immediately; compilation happens in the background.
+     *
+     * @param sourceDirectory
+     * @return
+     * @throws IOException
+     */
+    public Future<CompilationResult> compile(Path sourceDirectory) throws IOException {
+        final Map<String, byte[]> sources = readSources(sourceDirectory);
+        final String digest = digest(sources);
+
+        FutureTask<CompilationResult> task = new FutureTask<>(new Callable<CompilationResult>() {
+            @Override
+            public CompilationResult call() throws IOException {
+                return compile(digest, sources);
+            }
+        });
+
+        Future<CompilationResult> cached = cache.putIfAbsent(digest, task);
+
+        if (cached != null) {
+            return cached;
+        }
+
+        executor.execute(task);
+        return task;
+    }
+
+    /**
+     * Waits until all compilations that were started have finished. Call this
+     * before running the first test.
+     *
+     * @throws InterruptedException
+     */
+    public void awaitCompletion() throws InterruptedException {
+        for (Future<CompilationResult> compilation : cache.values()) {
+            try {
+                compilation.get();
+            } catch (ExecutionException e) {
+                // Reported by the test that uses this compilation
+            }
+        }
+    }
+
+    public Path getCacheDirectory() {
+        return cacheDirectory;
+    }
+
+    /**
+     * Also stores compilation results on disk, in a subdirectory of the given
+     * directory named after the digest of the sources. Grader runs that use
+     * the same directory share their results.
+     *
+     * @param cacheDirectory the directory, or null to only cache results in
+     * memory
+     */
+    public void setCacheDirectory(Path cacheDirectory) {
+        this.cacheDirectory = cacheDirectory;
+    }
+
+    /**
+     * Stops the compilation threads once all submitted work is done.
+     */
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    private CompilationResult compile(String digest, Map<String, byte[]> sources) throws IOException {
+        Path directory = cacheDirectory;
+
+        if (directory == null) {
+            return compile(sources);
+        }
+
+        CompilationResult result = readCached(directory.resolve(digest));
+
+        if (result == null) {
+            result = compile(sources);
+
+            try {
+                writeCached(directory, digest, result);
+            } catch (IOException e) {
+                System.err.println("Could not cache the compilation result: " + e);
+            }
+        }
+
+        return result;
+    }
+
+    private CompilationResult compile(Map<String, byte[]> sources) throws IOException {
+        List<JavaFileObject> units = new ArrayList<>();
+
+        for (Map.Entry<String, byte[]> source : sources.entrySet()) {
+            units.add(new MemoryFileManager.Source(source.getKey(), source.getValue(), charset));
+        }
+
+        if (units.isEmpty()) {
+            return new CompilationResult(false, new HashMap<String, byte[]>(), "No source files were found.");
+        }
+
+        DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+        StringWriter output = new StringWriter();
+
+        try (MemoryFileManager fileManager = new MemoryFileManager(compiler.getStandardFileManager(null, Locale.ENGLISH, charset))) {
+            boolean success = compiler.getTask(output, fileManager, diagnostics, options, null, units).call();
+            return new CompilationResult(success, fileManager.getClasses(), format(diagnostics.getDiagnostics(), output.toString()));
+        }
+    }
+
+    private static String format(List<Diagnostic<? extends JavaFileObject>> diagnostics, String output) {
+        StringBuilder result = new StringBuilder(output);
+
+        for (Diagnostic<? extends JavaFileObject> diagnostic : diagnostics) {
+            String source = (diagnostic.getSource() == null ? "" : diagnostic.getSource().toUri().getPath().substring(1) + ":" + diagnostic.getLineNumber() + ": ");
+            result.append(String.format("%s%s: %s%n", source, diagnostic.getKind().toString().toLowerCase(), diagnostic.getMessage(Locale.ENGLISH)));
+        }
+
+        return result.toString();
+    }
+
+    /**
+     * Reads a result stored by writeCached.
+     *
+     * @return the result, or null if it is not in the cache
+     */
+    private static CompilationResult readCached(Path entry) throws IOException {
+        if (!Files.isDirectory(entry)) {
+            return null;
+        }
+
+        String status = new String(Files.readAllBytes(entry.resolve("status")), StandardCharsets.UTF_8);
+        String diagnostics = new String(Files.readAllBytes(entry.resolve("diagnostics")), StandardCharsets.UTF_8);
+        Map<String, byte[]> classes = new HashMap<>();
+
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(entry.resolve("classes"))) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                classes.put(name.substring(0, name.length() - ".class".length()), Files.readAllBytes(file));
+            }
+        }
+
+        return new CompilationResult(status.equals("success"), classes, diagnostics);
+    }
+
+    /**
+     * Stores a result in a temporary directory and then renames it, so other
+     * grader runs never see a partially written result.
+     */
+    private static void writeCached(Path directory, String digest, CompilationResult result) throws IOException {
+        Path temp = Files.createTempDirectory(Files.createDirectories(directory), "tmp-");
+        Files.write(temp.resolve("status"), (result.isSuccess() ? "success" : "failure").getBytes(StandardCharsets.UTF_8));
+        Files.write(temp.resolve("diagnostics"), result.getDiagnostics().getBytes(StandardCharsets.UTF_8));
+        Path classes = Files.createDirectory(temp.resolve("classes"));
+
+        for (Map.Entry<String, byte[]> c : result.getClasses().entrySet()) {
+            Files.write(classes.resolve(c.getKey() + ".class"), c.getValue());
+        }
+
+        try {
+            Files.move(temp, directory.resolve(digest), StandardCopyOption.ATOMIC_MOVE);
+        } catch (FileAlreadyExistsException | DirectoryNotEmptyException e) {
+            // Another grader run stored the same result first
+            delete(temp);
+        }
+    }
+
+    private static void delete(Path path) throws IOException {
+        if (Files.isDirectory(path)) {
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(path)) {
+                for (Path file : files) {
+                    delete(file);
+                }
+            }
+        }
+
+        Files.delete(path);
+    }
+
+    /**
+     * Reads all .java files, by path relative to the source directory, in a
+     * fixed order.
+     */
+    private static Map<String, byte[]> readSources(Path sourceDirectory) throws IOException {
+        Map<String, byte[]> sources = new TreeMap<>();
+        List<Path> files;
+
+        try (Stream<Path> paths = Files.walk(sourceDirectory)) {
+            files = paths.filter(p -> p.toString().endsWith(".java") && Files.isRegularFile(p)).collect(Collectors.toList());
+        }
+
+        for (Path file : files) {
+            sources.put(sourceDirectory.relativize(file).toString(), Files.readAllBytes(file));
+        }
+
+        return sources;
+    }
+
+    private String digest(Map<String, byte[]> sources) {
+        MessageDigest digest;
+
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e); // Every Java platform supports SHA-256
+        }
+
+        for (String option : options) {
+            update(digest, option.getBytes(StandardCharsets.UTF_8));
+        }
+
+        for (Map.Entry<String, byte[]> source : sources.entrySet()) {
+            update(digest, source.getKey().getBytes(StandardCharsets.UTF_8));
+            update(digest, source.getValue());
+        }
+
+        StringBuilder hex = new StringBuilder();
+
+        for (byte b : digest.digest()) {
+            hex.append(String.format("%02x", b));
+        }
+
+        return hex.toString();
+    }
+
+    /**
+     * Adds the length before the bytes, so different splits of the same bytes
+     * give different digests.
+     */
+    private static void update(MessageDigest digest, byte[] bytes) {
+        digest.update(ByteBuffer.allocate(4).putInt(bytes.length).array());
+        digest.update(bytes);
+    }
+}
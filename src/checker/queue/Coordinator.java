@@ -0,0 +1,165 @@
+/*
+ * Copyright 2014 Sander Verdonschot <sander.verdonschot at gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package checker.queue;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Distributes submissions over the workers of a job queue, returns jobs of
+ * workers that stopped renewing their lease to the queue, and merges the
+ * results into a single report for the whole cohort.
+ *
+ * @author Sander Verdonschot <sander.verdonschot at gmail.com>
+ */
+public class Coordinator {
+
+    private static final long POLL_INTERVAL = 1000;
+
+    private final JobQueue queue;
+    private final long leaseMillis;
+
+    public Coordinator(JobQueue queue, long leaseMillis) {
+        this.queue = queue;
+        this.leaseMillis = leaseMillis;
+    }
+
+    /**
+     * Adds jobs for the given submissions and then tells the workers to
+     * start. This also stores the lease in the queue, so workers renew their
+     * leases often enough. The queue must be empty, so results from an earlier
+     * cohort do not end up in the report.
+     *
+     * @param submissions
+     * @param shardSize
+     * @throws IOException
+     */
+    public void submit(List<String> submissions, int shardSize) throws IOException {
+        if (!queue.isEmpty()) {
+            throw new IllegalStateException("The queue directory already contains jobs or results. Use an empty directory for each cohort.");
+        }
+
+        queue.setLease(leaseMillis);
+        queue.addJobs(submissions, shardSize);
+        queue.markReady();
+    }
+
+    /**
+     * Waits until all jobs are done, requeueing jobs with expired leases.
+     *
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    public void awaitCompletion() throws IOException, InterruptedException {
+        while (!queue.isFinished()) {
+            int requeued = queue.requeueExpired(leaseMillis);
+
+            if (requeued > 0) {
+                System.err.printf("Requeued %d job(s) with an expired lease.%n", requeued);
+            }
+
+            Thread.sleep(POLL_INTERVAL);
+        }
+    }
+
+    /**
+     * Writes the marks of all submissions as CSV, and prints the total for the
+     * cohort. Submissions that could not be graded are listed with their error
+     * and do not count towards the total.
+     *
+     * @param report
+     * @throws IOException
+     */
+    public void writeReport(Path report) throws IOException {
+        List<String> submissions = queue.completedSubmissions();
+        Collections.sort(submissions);
+
+        int graded = 0;
+        int errors = 0;
+        long totalMark = 0;
+        long totalMaxMark = 0;
+
+        try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(report, StandardCharsets.UTF_8))) {
+            out.println("submission,mark,maxMark,error");
+
+            for (String submission : submissions) {
+                JobQueue.Result result = queue.readResult(submission);
+
+                if (result == null) {
+                    result = new JobQueue.Result(submission, "No result found.");
+                }
+
+                if (result.isError()) {
+                    System.err.println("Could not grade " + submission + ": " + result.getError());
+                    out.printf("%s,,,\"%s\"%n", submission, result.getError().replace("\"", "\"\""));
+                    errors++;
+                    continue;
+                }
+
+                out.printf("%s,%d,%d,%n", submission, result.getMark(), result.getMaxMark());
+                graded++;
+                totalMark += result.getMark();
+                totalMaxMark += result.getMaxMark();
+            }
+        }
+
+        System.out.printf("Grading complete. %d submission(s) graded, %d error(s). Total mark: %d/%d.%n", graded, errors, totalMark, totalMaxMark);
+    }
+
+    /**
+     * Usage: Coordinator queueDirectory submissionsDirectory shardSize
+     * leaseSeconds reportFile
+     *
+     * Every subdirectory of the submissions directory is one submission. The
+     * queue directory must be new or empty; workers may be started before the
+     * coordinator.
+     *
+     * @param args
+     * @throws Exception
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length != 5) {
+            System.err.println("Usage: Coordinator queueDirectory submissionsDirectory shardSize leaseSeconds reportFile");
+            System.exit(1);
+        }
+
+        JobQueue queue = new JobQueue(Paths.get(args[0]));
+        List<String> submissions = new ArrayList<>();
+
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(Paths.get(args[1]))) {
+            for (Path submission : stream) {
+                if (Files.isDirectory(submission)) {
+                    submissions.add(submission.getFileName().toString());
+                }
+            }
+        }
+
+        Collections.sort(submissions);
+
+        Coordinator coordinator = new Coordinator(queue, 1000 * Long.parseLong(args[3]));
+        coordinator.submit(submissions, Integer.parseInt(args[2]));
+        coordinator.awaitCompletion();
+        coordinator.writeReport(Paths.get(args[4]));
+    }
+}
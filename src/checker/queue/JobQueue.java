@@ -0,0 +1,379 @@
+/*
+ * Copyright 2014 Sander Verdonschot <sander.verdonschot at gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package checker.queue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * A queue of grading jobs, stored in a directory that is shared by the
+ * coordinator and all workers, for example over NFS. Each job is a file that
+ * lists the submissions in one shard. Jobs move between the subdirectories
+ * "pending", "claimed" and "done" through atomic renames, so exactly one worker
+ * can claim a job. A claimed job is leased: the worker regularly updates its
+ * modification time, and the coordinator returns jobs whose lease has expired
+ * to "pending". The file name of a claimed job includes a token that is unique
+ * to the claim, so a worker whose lease expired cannot renew or complete a
+ * later claim of the same job. The lease is stored in the queue directory, so
+ * the coordinator and all workers agree on it. Workers wait for a "ready"
+ * file, which the coordinator creates once all jobs have been added. Results
+ * are written to the "results" subdirectory, one file per submission.
+ *
+ * As leases are based on modification times, the clocks of all machines
+ * should agree to within a small fraction of the lease time.
+ *
+ * @author Sander Verdonschot <sander.verdonschot at gmail.com>
+ */
+public class JobQueue {
+
+    private static final String ERROR_PREFIX = "error: "; // Marks the result of a submission that could not be graded
+
+    private final Path pending;
+    private final Path claimed;
+    private final Path done;
+    private final Path results;
+    private final Path temp;
+    private final Path lease;
+    private final Path ready; // Created once all jobs have been added
+
+    public JobQueue(Path root) throws IOException {
+        pending = Files.createDirectories(root.resolve("pending"));
+        claimed = Files.createDirectories(root.resolve("claimed"));
+        done = Files.createDirectories(root.resolve("done"));
+        results = Files.createDirectories(root.resolve("results"));
+        temp = Files.createDirectories(root.resolve("tmp"));
+        lease = root.resolve("lease");
+        ready = root.resolve("ready");
+    }
+
+    /**
+     * Returns true if the queue has no jobs, results or lease, for example
+     * from grading an earlier cohort in the same directory.
+     *
+     * @return
+     * @throws IOException
+     */
+    public boolean isEmpty() throws IOException {
+        return list(pending).isEmpty() && list(claimed).isEmpty() && list(done).isEmpty() && list(results).isEmpty()
+                && !Files.exists(lease) && !Files.exists(ready);
+    }
+
+    /**
+     * Signals the workers that all jobs have been added.
+     *
+     * @throws IOException
+     */
+    public void markReady() throws IOException {
+        writeAtomically(ready, Collections.<String>emptyList());
+    }
+
+    /**
+     * Returns true once the coordinator has added all jobs. Until then, an
+     * empty queue does not mean that all work is done.
+     *
+     * @return
+     */
+    public boolean isReady() {
+        return Files.exists(ready);
+    }
+
+    /**
+     * Sets the time after which a claimed job is returned to the pending jobs,
+     * unless its worker renews the lease.
+     *
+     * @param leaseMillis
+     * @throws IOException
+     */
+    public void setLease(long leaseMillis) throws IOException {
+        writeAtomically(lease, Collections.singletonList(Long.toString(leaseMillis)));
+    }
+
+    /**
+     * Returns the lease set by the coordinator, in milliseconds.
+     *
+     * @return
+     * @throws IOException if the coordinator has not set a lease
+     */
+    public long getLease() throws IOException {
+        try {
+            return Long.parseLong(Files.readAllLines(lease, StandardCharsets.UTF_8).get(0).trim());
+        } catch (NoSuchFileException e) {
+            throw new IOException("The queue has no lease. Submit the jobs through the coordinator.", e);
+        }
+    }
+
+    /**
+     * Splits the given submissions into shards of at most the given size and
+     * adds a pending job for each shard.
+     *
+     * @param submissions
+     * @param shardSize
+     * @throws IOException
+     */
+    public void addJobs(List<String> submissions, int shardSize) throws IOException {
+        if (shardSize < 1) {
+            throw new IllegalArgumentException("Shard size must be positive.");
+        }
+
+        for (int i = 0; i < submissions.size(); i += shardSize) {
+            List<String> shard = submissions.subList(i, Math.min(i + shardSize, submissions.size()));
+            writeAtomically(pending.resolve(String.format("job-%05d", i / shardSize)), shard);
+        }
+    }
+
+    /**
+     * Claims a pending job.
+     *
+     * @return the claimed job, or null if there are no pending jobs
+     * @throws IOException
+     */
+    public Job claim() throws IOException {
+        for (Path job : list(pending)) {
+            try {
+                // Start the lease before the job becomes visible as claimed
+                Files.setLastModifiedTime(job, now());
+                Path claimedJob = Files.move(job, claimed.resolve(job.getFileName() + "." + UUID.randomUUID()), StandardCopyOption.ATOMIC_MOVE);
+                return new Job(job.getFileName().toString(), claimedJob.getFileName().toString(), Files.readAllLines(claimedJob, StandardCharsets.UTF_8));
+            } catch (NoSuchFileException | FileAlreadyExistsException e) {
+                // Another worker claimed this job first
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Extends the lease on a claimed job.
+     *
+     * @param job
+     * @return false if the job is no longer claimed by this worker, because its
+     * lease expired
+     * @throws IOException
+     */
+    public boolean renew(Job job) throws IOException {
+        try {
+            Files.setLastModifiedTime(claimed.resolve(job.claim), now());
+            return true;
+        } catch (NoSuchFileException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Marks a claimed job as done.
+     *
+     * @param job
+     * @return false if the job is no longer claimed by this worker, because its
+     * lease expired
+     * @throws IOException
+     */
+    public boolean complete(Job job) throws IOException {
+        try {
+            Files.move(claimed.resolve(job.claim), done.resolve(job.getName()), StandardCopyOption.ATOMIC_MOVE);
+            return true;
+        } catch (NoSuchFileException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Returns all claimed jobs whose lease is older than the given time to the
+     * pending jobs.
+     *
+     * @param leaseMillis
+     * @return the number of jobs that were returned
+     * @throws IOException
+     */
+    public int requeueExpired(long leaseMillis) throws IOException {
+        long expiry = System.currentTimeMillis() - leaseMillis;
+        int requeued = 0;
+
+        for (Path job : list(claimed)) {
+            try {
+                if (Files.getLastModifiedTime(job).toMillis() < expiry) {
+                    String claim = job.getFileName().toString();
+                    String name = claim.substring(0, claim.lastIndexOf('.'));
+                    Files.move(job, pending.resolve(name), StandardCopyOption.ATOMIC_MOVE);
+                    requeued++;
+                }
+            } catch (NoSuchFileException e) {
+                // The job was completed in the meantime
+            }
+        }
+
+        return requeued;
+    }
+
+    /**
+     * Returns true if no jobs are pending or claimed.
+     *
+     * @return
+     * @throws IOException
+     */
+    public boolean isFinished() throws IOException {
+        return list(pending).isEmpty() && list(claimed).isEmpty();
+    }
+
+    public void writeResult(Result result) throws IOException {
+        String line = (result.isError() ? ERROR_PREFIX + result.getError() : result.getMark() + "/" + result.getMaxMark());
+        writeAtomically(results.resolve(result.getSubmission()), Collections.singletonList(line));
+    }
+
+    /**
+     * Reads the result for the given submission.
+     *
+     * @param submission
+     * @return the result, or null if the submission has not been graded
+     * @throws IOException
+     */
+    public Result readResult(String submission) throws IOException {
+        try {
+            String line = Files.readAllLines(results.resolve(submission), StandardCharsets.UTF_8).get(0);
+
+            if (line.startsWith(ERROR_PREFIX)) {
+                return new Result(submission, line.substring(ERROR_PREFIX.length()));
+            }
+
+            String[] marks = line.split("/");
+            return new Result(submission, Integer.parseInt(marks[0]), Integer.parseInt(marks[1]));
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Reads all submissions from the jobs that are done.
+     *
+     * @return
+     * @throws IOException
+     */
+    public List<String> completedSubmissions() throws IOException {
+        List<String> submissions = new ArrayList<>();
+
+        for (Path job : list(done)) {
+            submissions.addAll(Files.readAllLines(job, StandardCharsets.UTF_8));
+        }
+
+        return submissions;
+    }
+
+    /**
+     * Writes the file in the temporary directory and then renames it, so
+     * other machines never see a partially written file.
+     */
+    private void writeAtomically(Path file, List<String> lines) throws IOException {
+        Path tempFile = Files.createTempFile(temp, file.getFileName().toString(), ".tmp");
+        Files.write(tempFile, lines, StandardCharsets.UTF_8);
+        Files.move(tempFile, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private static List<Path> list(Path dir) throws IOException {
+        List<Path> files = new ArrayList<>();
+
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+            for (Path file : stream) {
+                files.add(file);
+            }
+        }
+
+        Collections.sort(files);
+        return files;
+    }
+
+    private static FileTime now() {
+        return FileTime.fromMillis(System.currentTimeMillis());
+    }
+
+    public static class Job {
+
+        private final String name;
+        private final String claim; // The file name of this claim in "claimed"
+        private final List<String> submissions;
+
+        Job(String name, String claim, List<String> submissions) {
+            this.name = name;
+            this.claim = claim;
+            this.submissions = submissions;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public List<String> getSubmissions() {
+            return submissions;
+        }
+    }
+
+    public static class Result {
+
+        private final String submission;
+        private final int mark;
+        private final int maxMark;
+        private final String error; // Null if the submission was graded
+
+        public Result(String submission, int mark, int maxMark) {
+            this.submission = submission;
+            this.mark = mark;
+            this.maxMark = maxMark;
+            error = null;
+        }
+
+        /**
+         * The result of a submission that could not be graded.
+         *
+         * @param submission
+         * @param error why the submission could not be graded, on a single line
+         */
+        public Result(String submission, String error) {
+            this.submission = submission;
+            mark = 0;
+            maxMark = 0;
+            this.error = error;
+        }
+
+        public String getSubmission() {
+            return submission;
+        }
+
+        public int getMark() {
+            return mark;
+        }
+
+        public int getMaxMark() {
+            return maxMark;
+        }
+
+        public boolean isError() {
+            return error != null;
+        }
+
+        public String getError() {
+            return error;
+        }
+    }
+}
@@ -0,0 +1,233 @@
+/*
+ * Copyright 2014 Sander Verdonschot <sander.verdonschot at gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package checker.queue;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Claims jobs from a job queue and grades every submission in them. Each
+ * submission is graded by a separate grader process, as the checker takes over
+ * System.out and exits when it finishes. The grader command may contain the
+ * placeholder "{submission}", which is replaced by the submission name. The
+ * mark is taken from the total that Checker.finish prints. Graders that crash,
+ * do not report a total, stop before all tests ran, or exceed the time limit
+ * are recorded as errors.
+ *
+ * @author Sander Verdonschot <sander.verdonschot at gmail.com>
+ */
+public class Worker {
+
+    private static final Pattern TOTAL_MARK = Pattern.compile("Tests complete\\. Total mark: (\\d+)/(\\d+)\\.");
+    private static final Pattern INCOMPLETE = Pattern.compile("Tests incomplete\\. Total mark: (\\d+)/(\\d+)\\.");
+    private static final long POLL_INTERVAL = 1000;
+
+    private final JobQueue queue;
+    private final List<String> command;
+    private final long timeoutMillis; // The time limit for grading one submission
+
+    public Worker(JobQueue queue, List<String> command, long timeoutMillis) {
+        this.queue = queue;
+        this.command = command;
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    /**
+     * Waits for the coordinator to submit the jobs, then grades jobs until the
+     * queue is finished.
+     *
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    public void run() throws IOException, InterruptedException {
+        if (!queue.isReady()) {
+            System.err.println("Waiting for the coordinator to submit the jobs.");
+
+            while (!queue.isReady()) {
+                Thread.sleep(POLL_INTERVAL);
+            }
+        }
+
+        ScheduledExecutorService leaseRenewal = Executors.newSingleThreadScheduledExecutor();
+
+        try {
+            while (!queue.isFinished()) {
+                JobQueue.Job job = queue.claim();
+
+                if (job == null) {
+                    // Other workers hold the remaining jobs, but their leases may still expire
+                    Thread.sleep(POLL_INTERVAL);
+                    continue;
+                }
+
+                gradeJob(job, leaseRenewal);
+            }
+        } finally {
+            leaseRenewal.shutdownNow();
+        }
+    }
+
+    private void gradeJob(JobQueue.Job job, ScheduledExecutorService leaseRenewal) throws IOException, InterruptedException {
+        long renewalInterval = Math.max(1, queue.getLease() / 3);
+        AtomicBoolean leaseLost = new AtomicBoolean(false);
+        ScheduledFuture<?> renewal = leaseRenewal.scheduleAtFixedRate(() -> {
+            try {
+                if (!queue.renew(job)) {
+                    leaseLost.set(true);
+                }
+            } catch (IOException e) {
+                System.err.println("Could not renew the lease on " + job.getName() + ": " + e);
+            }
+        }, renewalInterval, renewalInterval, TimeUnit.MILLISECONDS);
+
+        try {
+            for (String submission : job.getSubmissions()) {
+                JobQueue.Result result = gradeSubmission(submission, leaseLost);
+
+                if (result == null) {
+                    // The job was returned to the queue, so another worker may be grading it already
+                    System.err.println("The lease on " + job.getName() + " expired. Stopped grading it.");
+                    return;
+                }
+
+                queue.writeResult(result);
+            }
+        } finally {
+            renewal.cancel(false);
+        }
+
+        if (!queue.complete(job)) {
+            System.err.println("The lease on " + job.getName() + " expired before it was completed.");
+        }
+    }
+
+    /**
+     * Grades a single submission.
+     *
+     * @param submission
+     * @param leaseLost set when the lease on the job expires
+     * @return the result, or null if the lease expired during grading
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    private JobQueue.Result gradeSubmission(String submission, AtomicBoolean leaseLost) throws IOException, InterruptedException {
+        List<String> submissionCommand = new ArrayList<>(command.size());
+
+        for (String part : command) {
+            submissionCommand.add(part.replace("{submission}", submission));
+        }
+
+        Path output = Files.createTempFile("grader", ".out");
+
+        try {
+            // The output goes to a file, so this thread is free to enforce the time limit
+            Process grader = new ProcessBuilder(submissionCommand)
+                    .redirectError(ProcessBuilder.Redirect.INHERIT)
+                    .redirectOutput(output.toFile())
+                    .start();
+
+            long deadline = System.currentTimeMillis() + timeoutMillis;
+
+            while (!grader.waitFor(POLL_INTERVAL, TimeUnit.MILLISECONDS)) {
+                if (leaseLost.get()) {
+                    grader.destroyForcibly();
+                    return null;
+                }
+
+                if (System.currentTimeMillis() >= deadline) {
+                    grader.destroyForcibly();
+                    System.err.println("The grader timed out on " + submission + ".");
+                    return new JobQueue.Result(submission, String.format("The grader did not finish within %d seconds.", timeoutMillis / 1000));
+                }
+            }
+
+            if (leaseLost.get()) {
+                return null;
+            }
+
+            JobQueue.Result result = null;
+            String partialMark = null; // Set if the checker stopped before all tests ran
+
+            try (BufferedReader in = new BufferedReader(new InputStreamReader(Files.newInputStream(output)))) {
+                String line = in.readLine();
+
+                while (line != null) {
+                    Matcher matcher = TOTAL_MARK.matcher(line);
+
+                    if (matcher.find()) {
+                        result = new JobQueue.Result(submission, Integer.parseInt(matcher.group(1)), Integer.parseInt(matcher.group(2)));
+                    }
+
+                    matcher = INCOMPLETE.matcher(line);
+
+                    if (matcher.find()) {
+                        partialMark = matcher.group(1) + "/" + matcher.group(2);
+                    }
+
+                    line = in.readLine();
+                }
+            }
+
+            if (result == null && partialMark != null) {
+                System.err.println("The grader stopped early on " + submission + ".");
+                result = new JobQueue.Result(submission, String.format("The grader stopped before all tests ran, with a partial mark of %s.", partialMark));
+            } else if (result == null) {
+                System.err.println("The grader did not report a total mark for " + submission + ".");
+                result = new JobQueue.Result(submission, String.format("The grader exited with code %d without reporting a total mark.", grader.exitValue()));
+            }
+
+            return result;
+        } finally {
+            Files.deleteIfExists(output);
+        }
+    }
+
+    /**
+     * Usage: Worker queueDirectory timeoutSeconds graderCommand...
+     *
+     * The timeout is the time limit for grading one submission. The lease is
+     * set by the coordinator.
+     *
+     * @param args
+     * @throws Exception
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length < 3) {
+            System.err.println("Usage: Worker queueDirectory timeoutSeconds graderCommand...");
+            System.exit(1);
+        }
+
+        JobQueue queue = new JobQueue(Paths.get(args[0]));
+        long timeoutMillis = 1000 * Long.parseLong(args[1]);
+        List<String> command = Arrays.asList(args).subList(2, args.length);
+
+        new Worker(queue, command, timeoutMillis).run();
+    }
+}
@@ -19,8 +19,11 @@ import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.Reader;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.stream.Collectors;
 
@@ -55,6 +58,136 @@ public class FileContentsChecker {
         }
     }
 
+    /**
+     * Checks whether the given files contain the same sequence of tokens, where
+     * numeric tokens only need to be approximately equal. Two numbers a and b
+     * are considered equal if |a - b| is at most the absolute epsilon, or at
+     * most the relative epsilon times the larger of |a| and |b|. All other
+     * tokens must be identical. The files are read in a single pass.
+     *
+     * @param outputFile
+     * @param solutionFile
+     * @param absoluteEpsilon
+     * @param relativeEpsilon
+     * @return null if the files are equal, a description of the first
+     * difference otherwise.
+     * @throws IOException
+     */
+    public static String checkNumericEquality(File outputFile, File solutionFile, double absoluteEpsilon, double relativeEpsilon) throws IOException {
+        try (TokenReader output = new TokenReader(new FileReader(outputFile));
+                TokenReader solution = new TokenReader(new FileReader(solutionFile))) {
+            String token1 = output.next();
+            String token2 = solution.next();
+
+            while (token1 != null && token2 != null) {
+                if (!token1.equals(token2) && !numbersEqual(token1, token2, absoluteEpsilon, relativeEpsilon)) {
+                    return String.format("Line %d: expected \"%s\" but found \"%s\".", output.getLineNumber(), token2, token1);
+                }
+
+                token1 = output.next();
+                token2 = solution.next();
+            }
+
+            return checkTokensExhausted(token1, token2, output.getLineNumber());
+        }
+    }
+
+    /**
+     * Checks whether the given files contain the same sequence of tokens, so
+     * any differences in whitespace, including line breaks, are ignored. The
+     * files are read in a single pass.
+     *
+     * @param outputFile
+     * @param solutionFile
+     * @param ignoreCase whether tokens that only differ in case are equal
+     * @return null if the files are equal, a description of the first
+     * difference otherwise.
+     * @throws IOException
+     */
+    public static String checkEqualityIgnoringWhitespace(File outputFile, File solutionFile, boolean ignoreCase) throws IOException {
+        try (TokenReader output = new TokenReader(new FileReader(outputFile));
+                TokenReader solution = new TokenReader(new FileReader(solutionFile))) {
+            String token1 = output.next();
+            String token2 = solution.next();
+
+            while (token1 != null && token2 != null) {
+                if (ignoreCase ? !token1.equalsIgnoreCase(token2) : !token1.equals(token2)) {
+                    return String.format("Line %d: expected \"%s\" but found \"%s\".", output.getLineNumber(), token2, token1);
+                }
+
+                token1 = output.next();
+                token2 = solution.next();
+            }
+
+            return checkTokensExhausted(token1, token2, output.getLineNumber());
+        }
+    }
+
+    /**
+     * Checks whether the given files contain the same lines, in any order.
+     * Lines that occur multiple times must occur equally often in both files.
+     * Only a 64-bit hash of each distinct solution line is kept in memory, and
+     * lines are matched by this hash alone, so an output line whose hash
+     * collides with that of a solution line is accepted without a warning.
+     * Tests call this while the student security manager is active, which
+     * does not allow lambdas to be bootstrapped, so this method avoids them.
+     *
+     * @param outputFile
+     * @param solutionFile
+     * @return null if the files contain the same lines, a description of the
+     * first difference otherwise.
+     * @throws IOException
+     */
+    public static String checkUnorderedEquality(File outputFile, File solutionFile) throws IOException {
+        Map<Long, Integer> counts = new HashMap<>();
+
+        try (BufferedReader in = new BufferedReader(new FileReader(solutionFile))) {
+            String line = in.readLine();
+
+            while (line != null) {
+                long hash = hash(line);
+                Integer count = counts.get(hash);
+                counts.put(hash, count == null ? 1 : count + 1);
+                line = in.readLine();
+            }
+        }
+
+        try (BufferedReader in = new BufferedReader(new FileReader(outputFile))) {
+            int i = 1;
+            String line = in.readLine();
+
+            while (line != null) {
+                long hash = hash(line);
+                Integer count = counts.get(hash);
+
+                if (count == null) {
+                    return String.format("Line %d of the output is not in the solution:%n%s", i, line);
+                } else if (count == 0) {
+                    return String.format("Line %d of the output occurs more often than in the solution:%n%s", i, line);
+                }
+
+                counts.put(hash, count - 1);
+                line = in.readLine();
+                i++;
+            }
+        }
+
+        // Find a solution line that was not matched by the output
+        try (BufferedReader in = new BufferedReader(new FileReader(solutionFile))) {
+            String line = in.readLine();
+
+            while (line != null) {
+                if (counts.get(hash(line)) > 0) {
+                    return String.format("The output does not contain the following line from the solution:%n%s", line);
+                }
+
+                line = in.readLine();
+            }
+        }
+
+        return null;
+    }
+
     /**
      * Returns a verbose explanation why the two given files are not equal. This
      * implementation is very costly, as it reads the entire file into memory.
@@ -144,9 +277,102 @@ public class FileContentsChecker {
         return null;
     }
 
+    private static boolean numbersEqual(String token1, String token2, double absoluteEpsilon, double relativeEpsilon) {
+        double a, b;
+
+        try {
+            a = Double.parseDouble(token1);
+            b = Double.parseDouble(token2);
+        } catch (NumberFormatException e) {
+            return false;
+        }
+
+        double difference = Math.abs(a - b);
+        return difference <= absoluteEpsilon || difference <= relativeEpsilon * Math.max(Math.abs(a), Math.abs(b));
+    }
+
+    private static String checkTokensExhausted(String token1, String token2, int line) {
+        if (token1 == null && token2 != null) {
+            return String.format("The output ended before the solution: expected \"%s\".", token2);
+        } else if (token1 != null && token2 == null) {
+            return String.format("Line %d: found \"%s\" after the end of the solution.", line, token1);
+        } else {
+            return null;
+        }
+    }
+
+    /**
+     * A 64-bit FNV-1a hash of the given line.
+     */
+    private static long hash(String line) {
+        long hash = 0xcbf29ce484222325L;
+
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            hash = (hash ^ (c & 0xFF)) * 0x100000001b3L;
+            hash = (hash ^ (c >>> 8)) * 0x100000001b3L;
+        }
+
+        return hash;
+    }
+
     private static List<String> readFile(File file) throws IOException {
         try (BufferedReader in = new BufferedReader(new FileReader(file))) {
             return in.lines().collect(Collectors.toList());
         }
     }
+
+    /**
+     * Splits the contents of a reader into whitespace-separated tokens,
+     * keeping track of the line of the last token.
+     */
+    private static class TokenReader implements AutoCloseable {
+
+        private final Reader in;
+        private final StringBuilder token = new StringBuilder();
+        private int line = 1;
+        private int tokenLine = 1;
+        private int next;
+
+        TokenReader(Reader in) throws IOException {
+            this.in = new BufferedReader(in);
+            next = this.in.read();
+        }
+
+        /**
+         * Returns the next token, or null if there are no more tokens.
+         */
+        String next() throws IOException {
+            while (next != -1 && Character.isWhitespace(next)) {
+                if (next == '\n') {
+                    line++;
+                }
+
+                next = in.read();
+            }
+
+            if (next == -1) {
+                return null;
+            }
+
+            tokenLine = line;
+            token.setLength(0);
+
+            while (next != -1 && !Character.isWhitespace(next)) {
+                token.append((char) next);
+                next = in.read();
+            }
+
+            return token.toString();
+        }
+
+        int getLineNumber() {
+            return tokenLine;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
 }
@@ -0,0 +1,380 @@
+/*
+ * Copyright 2014 Sander Verdonschot <sander.verdonschot at gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package checker.util;
+
+import java.nio.charset.StandardCharsets;
+import java.util.InputMismatchException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Reads lines, tokens and numbers directly from a range of bytes, without
+ * copying them. Like a Scanner, lines and tokens share a single position, so
+ * nextLine returns the remainder of the current line. Characters are
+ * interpreted as single bytes, which is exact for ASCII output.
+ *
+ * @author Sander Verdonschot <sander.verdonschot at gmail.com>
+ */
+public class OutputReader {
+
+    private static final double[] POWERS_OF_TEN = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10,
+        1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    private final byte[] bytes;
+    private final int start;
+    private final int end;
+    private int position;
+
+    public OutputReader(byte[] bytes, int offset, int length) {
+        this.bytes = bytes;
+        this.start = offset;
+        this.end = offset + length;
+        this.position = offset;
+    }
+
+    /**
+     * Moves back to the start of the output.
+     */
+    public void reset() {
+        position = start;
+    }
+
+    public boolean hasNextLine() {
+        return position < end;
+    }
+
+    /**
+     * Returns the rest of the current line, without the line terminator, and
+     * moves to the start of the next line. The returned sequence is a view on
+     * the underlying bytes.
+     *
+     * @return
+     */
+    public CharSequence nextLine() {
+        if (!hasNextLine()) {
+            throw new NoSuchElementException("No line found.");
+        }
+
+        int lineStart = position;
+        int lineEnd = position;
+
+        while (lineEnd < end && bytes[lineEnd] != '\n' && bytes[lineEnd] != '\r') {
+            lineEnd++;
+        }
+
+        position = lineEnd;
+
+        if (position < end && bytes[position] == '\r') {
+            position++;
+        }
+
+        if (position < end && bytes[position] == '\n') {
+            position++;
+        }
+
+        return new ByteSequence(lineStart, lineEnd);
+    }
+
+    /**
+     * Returns an iterator over the remaining lines.
+     *
+     * @return
+     */
+    public Iterator<CharSequence> lines() {
+        return new Iterator<CharSequence>() {
+            @Override
+            public boolean hasNext() {
+                return hasNextLine();
+            }
+
+            @Override
+            public CharSequence next() {
+                return nextLine();
+            }
+        };
+    }
+
+    /**
+     * Returns true if there is another whitespace-delimited token.
+     *
+     * @return
+     */
+    public boolean hasNext() {
+        return tokenStart() < end;
+    }
+
+    /**
+     * Returns the next whitespace-delimited token as a view on the underlying
+     * bytes.
+     *
+     * @return
+     */
+    public CharSequence nextToken() {
+        int tokenStart = tokenStart();
+
+        if (tokenStart == end) {
+            throw new NoSuchElementException("No token found.");
+        }
+
+        int tokenEnd = tokenEnd(tokenStart);
+        position = tokenEnd;
+        return new ByteSequence(tokenStart, tokenEnd);
+    }
+
+    public String next() {
+        return nextToken().toString();
+    }
+
+    public int nextInt() {
+        int tokenStart = tokenStart();
+        int tokenEnd = tokenEnd(tokenStart);
+        long value = parseLong(tokenStart, tokenEnd);
+
+        if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+            throw mismatch("int", tokenStart, tokenEnd);
+        }
+
+        position = tokenEnd;
+        return (int) value;
+    }
+
+    public long nextLong() {
+        int tokenStart = tokenStart();
+        int tokenEnd = tokenEnd(tokenStart);
+        long value = parseLong(tokenStart, tokenEnd);
+        position = tokenEnd;
+        return value;
+    }
+
+    public double nextDouble() {
+        int tokenStart = tokenStart();
+        int tokenEnd = tokenEnd(tokenStart);
+        double value = parseDouble(tokenStart, tokenEnd);
+        position = tokenEnd;
+        return value;
+    }
+
+    private int tokenStart() {
+        int i = position;
+
+        while (i < end && isWhitespace(bytes[i])) {
+            i++;
+        }
+
+        return i;
+    }
+
+    private int tokenEnd(int tokenStart) {
+        if (tokenStart == end) {
+            throw new NoSuchElementException("No token found.");
+        }
+
+        int i = tokenStart;
+
+        while (i < end && !isWhitespace(bytes[i])) {
+            i++;
+        }
+
+        return i;
+    }
+
+    private long parseLong(int from, int to) {
+        int i = from;
+        boolean negative = false;
+
+        if (bytes[i] == '-' || bytes[i] == '+') {
+            negative = bytes[i] == '-';
+            i++;
+        }
+
+        if (i == to) {
+            throw mismatch("long", from, to);
+        }
+
+        // Accumulate negatively, as the range of negative longs is larger
+        long limit = negative ? Long.MIN_VALUE : -Long.MAX_VALUE;
+        long result = 0;
+
+        for (; i < to; i++) {
+            int digit = bytes[i] - '0';
+
+            if (digit < 0 || digit > 9 || result < limit / 10) {
+                throw mismatch("long", from, to);
+            }
+
+            result *= 10;
+
+            if (result < limit + digit) {
+                throw mismatch("long", from, to);
+            }
+
+            result -= digit;
+        }
+
+        return negative ? result : -result;
+    }
+
+    private double parseDouble(int from, int to) {
+        int i = from;
+        boolean negative = false;
+
+        if (bytes[i] == '-' || bytes[i] == '+') {
+            negative = bytes[i] == '-';
+            i++;
+        }
+
+        long mantissa = 0;
+        int significantDigits = 0;
+        int digits = 0;
+        int exponent = 0;
+        boolean fraction = false;
+
+        for (; i < to; i++) {
+            byte b = bytes[i];
+
+            if (b >= '0' && b <= '9') {
+                digits++;
+
+                if (mantissa > 0 || b != '0') {
+                    significantDigits++;
+
+                    if (significantDigits > 15) {
+                        return parseDoubleSlow(from, to);
+                    }
+
+                    mantissa = 10 * mantissa + (b - '0');
+                }
+
+                if (fraction) {
+                    exponent--;
+                }
+            } else if (b == '.' && !fraction) {
+                fraction = true;
+            } else {
+                break;
+            }
+        }
+
+        if (digits == 0) {
+            return parseDoubleSlow(from, to);
+        }
+
+        if (i < to) {
+            if (bytes[i] != 'e' && bytes[i] != 'E') {
+                return parseDoubleSlow(from, to);
+            }
+
+            i++;
+            boolean negativeExponent = false;
+
+            if (i < to && (bytes[i] == '-' || bytes[i] == '+')) {
+                negativeExponent = bytes[i] == '-';
+                i++;
+            }
+
+            if (i == to || to - i > 3) {
+                return parseDoubleSlow(from, to);
+            }
+
+            int exp = 0;
+
+            for (; i < to; i++) {
+                int digit = bytes[i] - '0';
+
+                if (digit < 0 || digit > 9) {
+                    return parseDoubleSlow(from, to);
+                }
+
+                exp = 10 * exp + digit;
+            }
+
+            exponent += negativeExponent ? -exp : exp;
+        }
+
+        // Both the mantissa and the power of ten are exact doubles, so a single
+        // multiplication or division rounds correctly
+        double value;
+
+        if (mantissa == 0) {
+            value = 0;
+        } else if (exponent >= 0 && exponent < POWERS_OF_TEN.length) {
+            value = mantissa * POWERS_OF_TEN[exponent];
+        } else if (exponent < 0 && -exponent < POWERS_OF_TEN.length) {
+            value = mantissa / POWERS_OF_TEN[-exponent];
+        } else {
+            return parseDoubleSlow(from, to);
+        }
+
+        return negative ? -value : value;
+    }
+
+    private double parseDoubleSlow(int from, int to) {
+        try {
+            return Double.parseDouble(new String(bytes, from, to - from, StandardCharsets.ISO_8859_1));
+        } catch (NumberFormatException e) {
+            throw mismatch("double", from, to);
+        }
+    }
+
+    private InputMismatchException mismatch(String type, int from, int to) {
+        return new InputMismatchException(String.format("Expected %s but found \"%s\".", type, new String(bytes, from, to - from, StandardCharsets.ISO_8859_1)));
+    }
+
+    private static boolean isWhitespace(byte b) {
+        return b == ' ' || b == '\n' || b == '\r' || b == '\t' || b == '\f' || b == 0x0B;
+    }
+
+    private class ByteSequence implements CharSequence {
+
+        private final int from;
+        private final int to;
+
+        ByteSequence(int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        public int length() {
+            return to - from;
+        }
+
+        @Override
+        public char charAt(int index) {
+            if (index < 0 || index >= length()) {
+                throw new IndexOutOfBoundsException("index: " + index + ", length: " + length());
+            }
+
+            return (char) (bytes[from + index] & 0xFF);
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            if (start < 0 || end > length() || start > end) {
+                throw new IndexOutOfBoundsException("start: " + start + ", end: " + end + ", length: " + length());
+            }
+
+            return new ByteSequence(from + start, from + end);
+        }
+
+        @Override
+        public String toString() {
+            return new String(bytes, from, to - from, StandardCharsets.ISO_8859_1);
+        }
+    }
+}